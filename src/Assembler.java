@@ -0,0 +1,468 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+// two pass assembler of the dialect of Program 2.txt
+// a line is "[label:] MNEMONIC operands [-- comment]", a label may also be written "#label:",
+// "#" elsewhere and ";" start a comment too, operands are separated by commas or spaces:
+//   LDR STR LDA AMR SMR JZ JNE SOB JGE   r, [x,] address [,I]
+//   JCC                                  cc (1 to 4), [x,] address [,I]
+//   JMA JSR                              [x,] address [,I]
+//   LDX STX                              x, address [,I]
+//   AIR SIR                              r, immediate
+//   RFS                                  immediate
+//   MLT DVD TRR AND ORR                  rx, ry
+//   NOT                                  rx
+//   SRC RRC                              r, count, L/R, A/L
+//   TRAP                                 code
+//   IN OUT                               r, device
+//   HLT
+// r is R0 to R3 or a number, x is X1 to X3, 0 or a number, a value is a number, 'c', a label,
+// or a sum and difference of them, so a field relative to an index register can be label-base
+// directives:
+//   ORG address         go on assembling at the address
+//   DATA value, ...     one word a value, a "string" gives one word a char
+//   START address       the PC of the image, the first instruction if not given
+//   "0000110000001010"  one word of 16 binary digits, as in the listings of the programs
+// the jump markers of the listing of Program 1.txt are labels without a name, a line "<--" marks
+// the next word and "-->" as a value is the address of the last mark before it
+// Program 1.txt still does not assemble: its "JNE R0, -->" has no index register and the mark
+// is past the 5 bits of the address field, the program 1 of BatchRunner is the working one
+// labels are found in the first pass, the words are encoded in the second
+// the output is a machine image with the ROM, cached by the hash of the source
+public class Assembler {
+    private static final int VERSION = 2;    // part of the cache key, change it when the output changes
+
+    private static final HashMap<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        String[] names = {"HLT", "LDR", "STR", "LDA", "AMR", "SMR", "AIR", "SIR", "JZ", "JNE", "JCC", "JMA", "JSR",
+                "RFS", "SOB", "JGE", "MLT", "DVD", "TRR", "AND", "ORR", "NOT", "SRC", "RRC", "TRAP", "LDX", "STX",
+                "IN", "OUT"};
+        int[] codes = {0, 01, 02, 03, 04, 05, 06, 07, 010, 011, 012, 013, 014,
+                015, 016, 017, 020, 021, 022, 023, 024, 025, 031, 032, 036, 041, 042,
+                061, 062};
+        for (int i = 0; i < names.length; i++)
+            OPCODES.put(names[i], codes[i]);
+    }
+
+    // one instruction or data word of the source
+    private static class Statement {
+        final int line;
+        final int address;
+        final String mnemonic;    // null for a data word
+        final String[] operands;    // a data word has its value as the only operand
+
+        Statement(int line, int address, String mnemonic, String[] operands) {
+            this.line = line;
+            this.address = address;
+            this.mnemonic = mnemonic;
+            this.operands = operands;
+        }
+    }
+
+    private final String fileName;    // for the errors
+    private final HashMap<String, Integer> labels = new HashMap<>();
+    private final HashMap<String, Integer> duplicates = new HashMap<>();    // labels defined more than once, an error only if they are used
+    private final ArrayList<Statement> statements = new ArrayList<>();
+    private String start;    // operand of START, null if not given
+    private int startLine;
+    private int first = -1;    // address of the first instruction
+    private int end;    // address after the last word
+    private int mark = -1;    // address of the last "<--" jump marker, -1 if none yet
+
+    private Assembler(String fileName) {
+        this.fileName = fileName;
+    }
+
+    // assemble the source into the memory and set the PC of the CPU, the memory gets the ROM first
+    public static void assemble(String fileName, String source, int origin, CPU cpu, Memory memory) throws IOException {
+        Assembler a = new Assembler(fileName);
+        a.parse(source, origin);
+        memory.loadROM();
+        cpu.clear();
+        if (a.end > memory.size())
+            memory.expand(a.end);
+        for (Statement s : a.statements)
+            memory.store(s.address, (char) a.encode(s));
+        int pc = a.start != null ? a.value(a.start, a.startLine) : a.first >= 0 ? a.first : origin;
+        cpu.setRegister(7, (char) pc);
+    }
+
+    // assemble the source file into a machine image in the cache directory, unless it is there
+    // already, and return the name of the image
+    public static String assembleCached(String sourceFile, int origin, String cacheDir) throws IOException {
+        byte[] source = Files.readAllBytes(Paths.get(sourceFile));
+        File image = new File(cacheDir, hash(source, origin) + ".img");
+        if (image.isFile() && MachineImage.isImage(image.getPath()))
+            return image.getPath();
+        Memory memory = new Memory();
+        CPU cpu = new CPU(memory);
+        assemble(sourceFile, new String(source, StandardCharsets.UTF_8), origin, cpu, memory);
+        image.getParentFile().mkdirs();
+        // write another name first so a run in parallel never sees half an image
+        File tmp = File.createTempFile("asm", ".tmp", image.getParentFile());
+        MachineImage.save(tmp.getPath(), cpu, memory);
+        if (!tmp.renameTo(image)) {
+            tmp.delete();
+            if (!image.isFile())
+                throw new IOException("Cannot write " + image);
+        }
+        return image.getPath();
+    }
+
+    // default directory of the cached images
+    public static String getCacheDir() {
+        return new File(System.getProperty("java.io.tmpdir"), "csim-asm").getPath();
+    }
+
+    // hex SHA-256 of the source, the origin and the version of the assembler
+    private static String hash(byte[] source, int origin) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(source);
+            md.update((origin + "/" + VERSION).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest())
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // first pass, split the lines into statements with their addresses and find the labels
+    private void parse(String source, int origin) throws IOException {
+        int address = origin;
+        String[] lines = source.split("\r?\n");
+        for (int n = 1; n <= lines.length; n++) {
+            String line = lines[n - 1];
+            // the jump markers, they start like a comment
+            if (line.trim().equals("<--")) {
+                mark = address;
+                continue;
+            }
+            int arrow = commentStart(line, "--");
+            if (line.startsWith("-->", arrow)) {
+                if (mark < 0)
+                    throw error(n, "--> without a <-- before it");
+                line = line.substring(0, arrow) + mark + line.substring(arrow + 3);
+            }
+            line = line.substring(0, commentStart(line, "--"));
+            line = line.substring(0, commentStart(line, ";")).trim();
+            // a label, "#" before it is the style of the programs and lets it have spaces
+            int colon = line.indexOf(':');
+            if (colon > 0 && (line.startsWith("#") || line.substring(0, colon).matches("[A-Za-z_.$][\\w.$]*"))) {
+                define(line.substring(line.startsWith("#") ? 1 : 0, colon).trim(), address, n);
+                line = line.substring(colon + 1).trim();
+            }
+            line = line.substring(0, commentStart(line, "#")).trim();
+            if (line.length() == 0)
+                continue;
+            // a word of a listing
+            if (line.startsWith("\"")) {
+                String word = line.replaceAll("[\",]", "");
+                if (!word.matches("[01]{16}"))
+                    throw error(n, "invalid binary word " + line);
+                statements.add(new Statement(n, address++, null, new String[]{"0b" + word}));
+                continue;
+            }
+            String[] ss = line.split("\\s+", 2);
+            String mnemonic = ss[0].toUpperCase(Locale.ROOT);
+            String rest = ss.length > 1 ? ss[1].trim() : "";
+            switch (mnemonic) {
+                case "ORG":
+                    address = value(rest, n);
+                    break;
+                case "START":
+                    start = rest;
+                    startLine = n;
+                    break;
+                case "DATA":
+                    for (String v : splitData(rest, n))
+                        statements.add(new Statement(n, address++, null, new String[]{v}));
+                    break;
+                default:
+                    if (!OPCODES.containsKey(mnemonic))
+                        throw error(n, "unknown instruction " + ss[0]);
+                    if (first < 0)
+                        first = address;
+                    statements.add(new Statement(n, address++, mnemonic, rest.length() == 0 ? new String[0] : rest.split("[,\\s]+")));
+                    break;
+            }
+            if (address > 0xffff)
+                throw error(n, "address out of range");
+            end = Math.max(end, address);
+        }
+    }
+
+    private void define(String label, int address, int line) throws IOException {
+        if (label.length() == 0)
+            throw error(line, "empty label");
+        if (labels.containsKey(label) || duplicates.containsKey(label)) {
+            labels.remove(label);
+            duplicates.put(label, line);
+        } else
+            labels.put(label, address);
+    }
+
+    // find where a comment starts, the marker does not count in a string or a char
+    private static int commentStart(String line, String marker) {
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'')
+                quote = c;
+            else if (line.startsWith(marker, i))
+                return i;
+        }
+        return line.length();
+    }
+
+    // split the values of DATA, a string gives one value a char
+    private ArrayList<String> splitData(String s, int line) throws IOException {
+        ArrayList<String> values = new ArrayList<>();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == ',' || Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int j = i;
+            if (c == '"') {
+                j = s.indexOf('"', i + 1);
+                if (j < 0)
+                    throw error(line, "unterminated string");
+                for (int k = i + 1; k < j; k++)
+                    values.add(Integer.toString(s.charAt(k)));
+                i = j + 1;
+                continue;
+            }
+            // a value ends at a comma or a space that is not in a char
+            while (j < s.length() && s.charAt(j) != ',' && !Character.isWhitespace(s.charAt(j)))
+                j += s.charAt(j) == '\'' ? 3 : 1;
+            j = Math.min(j, s.length());
+            values.add(s.substring(i, j));
+            i = j;
+        }
+        if (values.isEmpty())
+            throw error(line, "DATA without a value");
+        return values;
+    }
+
+    // second pass, encode the word of a statement
+    private int encode(Statement s) throws IOException {
+        if (s.mnemonic == null)
+            return value(s.operands[0], s.line) & 0xffff;
+        String[] ops = s.operands;
+        int n = ops.length;
+        boolean indirect = n > 0 && ops[n - 1].equalsIgnoreCase("I");
+        if (indirect)
+            n--;
+        int opcode = OPCODES.get(s.mnemonic);
+        int r = 0;
+        int x = 0;
+        int address = 0;
+        switch (s.mnemonic) {
+            case "HLT":
+                count(s, n, 0, 0);
+                break;
+            case "LDR":
+            case "STR":
+            case "LDA":
+            case "AMR":
+            case "SMR":
+            case "JZ":
+            case "JNE":
+            case "SOB":
+            case "JGE":
+            case "JCC":
+                count(s, n, 2, 3);
+                if (s.mnemonic.equals("JCC")) {
+                    r = field(ops[0], s.line, 1, 4, "condition code") - 1;
+                } else
+                    r = register(ops[0], s.line, 'R');
+                if (n == 3) {
+                    x = register(ops[1], s.line, 'X');
+                    address = field(ops[2], s.line, 0, 31, "address");
+                } else if (isRegister(ops[1], 'X'))
+                    x = register(ops[1], s.line, 'X');
+                else
+                    address = field(ops[1], s.line, 0, 31, "address");
+                break;
+            case "JMA":
+            case "JSR":
+            case "LDX":
+            case "STX":
+                // LDX and STX need the index register they load or store
+                count(s, n, s.mnemonic.startsWith("J") ? 1 : 2, 2);
+                if (n == 2) {
+                    x = register(ops[0], s.line, 'X');
+                    address = field(ops[1], s.line, 0, 31, "address");
+                } else
+                    address = field(ops[0], s.line, 0, 31, "address");
+                break;
+            case "AIR":
+            case "SIR":
+            case "IN":
+            case "OUT":
+                count(s, n, 2, 2);
+                r = register(ops[0], s.line, 'R');
+                address = field(ops[1], s.line, 0, 31, s.mnemonic.length() == 3 ? "immediate" : "device");
+                break;
+            case "RFS":
+            case "TRAP":
+                count(s, n, 0, 1);
+                address = n == 0 ? 0 : field(ops[0], s.line, 0, s.mnemonic.equals("TRAP") ? 15 : 31, "immediate");
+                break;
+            case "NOT":
+                count(s, n, 1, 1);
+                r = register(ops[0], s.line, 'R');
+                break;
+            case "SRC":
+            case "RRC":
+                // L/R is the low bit of the x field and A/L the high bit
+                count(s, n, 4, 4);
+                r = register(ops[0], s.line, 'R');
+                address = field(ops[1], s.line, 0, 15, "count");
+                x = field(ops[2], s.line, 0, 1, "L/R") | field(ops[3], s.line, 0, 1, "A/L") << 1;
+                break;
+            default:
+                // register to register
+                count(s, n, 2, 2);
+                r = register(ops[0], s.line, 'R');
+                x = register(ops[1], s.line, 'R');
+                break;
+        }
+        if (indirect && opcode != 0)
+            address |= 0x20;
+        return opcode << 10 | r << 8 | x << 6 | address;
+    }
+
+    private void count(Statement s, int n, int min, int max) throws IOException {
+        if (n < min || n > max)
+            throw error(s.line, s.mnemonic + " takes " + (min == max ? "" + min : min + " to " + max) + " operands");
+    }
+
+    private static boolean isRegister(String s, char kind) {
+        return s.length() == 2 && Character.toUpperCase(s.charAt(0)) == kind && Character.isDigit(s.charAt(1));
+    }
+
+    // a register R0 to R3 or X1 to X3 by name, or its number
+    private int register(String s, int line, char kind) throws IOException {
+        if (isRegister(s, kind)) {
+            int n = s.charAt(1) - '0';
+            if (n > 3 || (kind == 'X' && n == 0))
+                throw error(line, "invalid register " + s);
+            return n;
+        }
+        return field(s, line, 0, 3, kind == 'R' ? "register" : "index register");
+    }
+
+    // a value that has to fit a field
+    private int field(String s, int line, int min, int max, String name) throws IOException {
+        int v = value(s, line);
+        if (v < min || v > max)
+            throw error(line, name + " " + s + " = " + v + " out of " + min + " to " + max);
+        return v;
+    }
+
+    // a sum and difference of numbers, chars and labels
+    private int value(String s, int line) throws IOException {
+        s = s.trim();
+        if (s.length() == 0)
+            throw error(line, "missing value");
+        int sum = 0;
+        int sign = 1;
+        int i = 0;
+        while (i < s.length()) {
+            int j = i;
+            if (s.charAt(j) == '\'') {
+                if (j + 2 >= s.length() || s.charAt(j + 2) != '\'')
+                    throw error(line, "invalid char " + s);
+                sum += sign * s.charAt(j + 1);
+                j += 3;
+            } else {
+                while (j < s.length() && s.charAt(j) != '+' && (s.charAt(j) != '-' || j == i))
+                    j++;
+                sum += sign * term(s.substring(i, j).trim(), line);
+            }
+            if (j == s.length())
+                break;
+            if (s.charAt(j) != '+' && s.charAt(j) != '-')
+                throw error(line, "invalid value " + s);
+            sign = s.charAt(j) == '+' ? 1 : -1;
+            i = j + 1;
+        }
+        return sum;
+    }
+
+    private int term(String s, int line) throws IOException {
+        try {
+            if (s.startsWith("0x") || s.startsWith("0X"))
+                return Integer.parseInt(s.substring(2), 16);
+            if (s.startsWith("0b") || s.startsWith("0B"))
+                return Integer.parseInt(s.substring(2), 2);
+            if (s.length() > 0 && (Character.isDigit(s.charAt(0)) || s.charAt(0) == '-'))
+                return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw error(line, "invalid number " + s);
+        }
+        Integer address = labels.get(s);
+        if (address != null)
+            return address;
+        if (duplicates.containsKey(s))
+            throw error(line, "label " + s + " is defined more than once");
+        throw error(line, "unknown label " + s);
+    }
+
+    private IOException error(int line, String message) {
+        return new IOException(fileName + ":" + line + ": " + message);
+    }
+
+    // assemble a source into a machine image
+    public static void main(String[] args) {
+        String source = null;
+        String output = null;
+        int origin = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    output = args[++i];
+                    break;
+                case "-org":
+                    origin = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    source = args[i];
+                    break;
+            }
+        }
+        if (source == null || output == null) {
+            System.err.println("Usage: java Assembler [-org address] -o image source");
+            System.exit(2);
+        }
+        try {
+            Memory memory = new Memory();
+            CPU cpu = new CPU(memory);
+            String text = new String(Files.readAllBytes(Paths.get(source)), StandardCharsets.UTF_8);
+            assemble(source, text, origin, cpu, memory);
+            MachineImage.save(output, cpu, memory);
+            System.err.printf("%s: start %d%n", output, cpu.getRegister(7));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,629 @@
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Vector;
+
+import pipeliningpreImpl.Pipeline;
+import pipeliningpreImpl.branch.BranchUnit;
+
+// command line entrance, run a program on the machine without UI
+public class BatchRunner {
+    // geometry, policies and timing of the cache hierarchy and the write policy
+    static class MemoryConfig {
+        int words;    // words of main memory, 0 for the default
+        boolean offHeap;    // keep the words outside the heap
+        int[] cache = {1, 16, 1};    // sets, ways and words of a line of the L1 data cache
+        int[] instructionCache;    // geometry of the L1 instruction cache, null for a unified L1
+        int[] l2;    // geometry of the L2, null for none
+        int[] latencies;    // cycles of the L1, the L2 and memory, null for the defaults
+        String prefetch;    // "kind,degree,distance" of the prefetcher of the L1 data cache, null for none
+        String instructionPrefetch;    // prefetcher of the L1 instruction cache, null for none
+        boolean writeBack;
+        boolean writeAllocate = true;
+
+        // set up the memory and the caches of a runner, the L1I and L2 use the policy too unless it is OPT,
+        // which only has the trace of the data cache, they use LRU then
+        void apply(BatchRunner runner, String policy, int[] optTrace) {
+            Memory memory = runner.memory;
+            String other = policy.equals("opt") ? "lru" : policy;
+            if (words != 0 || offHeap) {
+                int n = words != 0 ? words : memory.size();
+                if (n < 32)
+                    throw new IllegalArgumentException("Memory too small for the ROM: " + n + " words");
+                memory.setBackend(offHeap ? new OffHeapBackend(n) : new CharArrayBackend(n));
+                runner.configuredMemory = true;
+            }
+            memory.setCache(cache[0], cache[1], cache[2], policy, optTrace);
+            if (instructionCache != null)
+                memory.setInstructionCache(instructionCache[0], instructionCache[1], instructionCache[2], other);
+            if (l2 != null)
+                memory.setL2Cache(l2[0], l2[1], l2[2], other);
+            if (latencies != null)
+                memory.setLatencies(latencies[0], latencies[1], latencies[2]);
+            if (prefetch != null)
+                memory.setPrefetcher(createPrefetcher(prefetch, cache[2]));
+            if (instructionPrefetch != null)
+                memory.setInstructionPrefetcher(createPrefetcher(instructionPrefetch,
+                        instructionCache == null ? cache[2] : instructionCache[2]));
+            memory.setWritePolicy(writeBack, writeAllocate);
+        }
+
+        // create a prefetcher from "kind,degree,distance", degree and distance are 1 if not given
+        private static Prefetcher createPrefetcher(String spec, int lineWords) {
+            String[] ss = spec.split(",");
+            int degree = ss.length > 1 ? Integer.parseInt(ss[1].trim()) : 1;
+            int distance = ss.length > 2 ? Integer.parseInt(ss[2].trim()) : 1;
+            return Prefetcher.create(ss[0].trim(), lineWords, degree, distance);
+        }
+    }
+
+    private final Memory memory;
+    private final CPU cpu;
+    private final Console console;
+    private final EventLog events;    // event log, null when the log is not printed
+    private final Vector<Vector<Character>> inputs;    // keyboard inputs in the order they are typed
+    private long maxInstructions;    // instruction budget of the whole run
+    private Duration maxTime;    // time budget of the whole run, null for none
+    private PipelineBus bus;    // memory and devices of the pipeline
+    private Pipeline pipeline;    // null when the CPU runs the program
+    private boolean threaded;    // run the stages of the pipeline on their own threads
+    private boolean busySpin;    // stage threads spin without yielding
+    private boolean configuredMemory;    // the memory is set up by -mem or -offheap, images are copied into it
+    private Checkpoints checkpoints;    // checkpoints taken while the CPU runs, null for none
+    private long checkpointInterval;    // instructions between two checkpoints
+    private TimeTravel timeTravel;    // reverse execution, null when it is off
+
+    // main entrance
+    public static void main(String[] args) {
+        String program = null;
+        String outputFile = null;
+        String saveFile = null;
+        long[] checkpoint = null;
+        int undoRecords = 0;
+        int[] tlb = null;
+        int origin = -1;
+        String traceFile = null;
+        long stepBack = 0;
+        String reverse = null;
+        boolean verbose = false;
+        boolean translate = false;
+        boolean pipelined = false;
+        boolean threaded = false;
+        boolean busySpin = false;
+        String predictor = null;
+        MemoryConfig config = new MemoryConfig();
+        String policy = "fifo";
+        long maxInstructions = Long.MAX_VALUE;
+        Duration maxTime = null;
+        Vector<Vector<Character>> inputs = new Vector<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    outputFile = args[++i];
+                    break;
+                case "-checkpoint":
+                {
+                    // instructions between two checkpoints and the budget in KB
+                    String[] ss = args[++i].split(",");
+                    checkpoint = new long[]{Long.parseLong(ss[0].trim()), ss.length > 1 ? Long.parseLong(ss[1].trim()) : 65536};
+                    break;
+                }
+                case "-save":
+                    saveFile = args[++i];
+                    break;
+                case "-trace":
+                    traceFile = args[++i];
+                    break;
+                case "-asm":
+                    origin = Integer.parseInt(args[++i]);
+                    break;
+                case "-mmu":
+                {
+                    // sets and ways of the TLB
+                    String[] ss = args[++i].split(",");
+                    tlb = new int[]{Integer.parseInt(ss[0].trim()), ss.length > 1 ? Integer.parseInt(ss[1].trim()) : 1};
+                    break;
+                }
+                case "-undo":
+                    undoRecords = Integer.parseInt(args[++i]);
+                    break;
+                case "-back":
+                    stepBack = Long.parseLong(args[++i]);
+                    break;
+                case "-reverse":
+                    reverse = args[++i];
+                    break;
+                case "-n":
+                    for (String s : args[++i].split(","))
+                        inputs.add(numberInput(Integer.parseInt(s.trim())));
+                    break;
+                case "-t":
+                    inputs.add(textInput(args[++i]));
+                    break;
+                case "-v":
+                    verbose = true;
+                    break;
+                case "-x":
+                    translate = true;
+                    break;
+                case "-p":
+                    pipelined = true;
+                    break;
+                case "-pt":
+                    pipelined = true;
+                    threaded = true;
+                    break;
+                case "-spin":
+                    busySpin = true;
+                    break;
+                case "-bp":
+                    predictor = args[++i];
+                    break;
+                case "-cache":
+                    config.cache = parseTriple(args[++i]);
+                    break;
+                case "-mem":
+                    config.words = Integer.parseInt(args[++i]);
+                    break;
+                case "-offheap":
+                    config.offHeap = true;
+                    break;
+                case "-l1i":
+                    config.instructionCache = parseTriple(args[++i]);
+                    break;
+                case "-l2":
+                    config.l2 = parseTriple(args[++i]);
+                    break;
+                case "-latency":
+                    config.latencies = parseTriple(args[++i]);
+                    break;
+                case "-prefetch":
+                    config.prefetch = args[++i];
+                    break;
+                case "-iprefetch":
+                    config.instructionPrefetch = args[++i];
+                    break;
+                case "-policy":
+                    policy = args[++i];
+                    break;
+                case "-wb":
+                    config.writeBack = true;
+                    break;
+                case "-nwa":
+                    config.writeAllocate = false;
+                    break;
+                case "-max":
+                    maxInstructions = Long.parseLong(args[++i]);
+                    break;
+                case "-time":
+                    maxTime = Duration.ofMillis(Long.parseLong(args[++i]));
+                    break;
+                default:
+                    program = args[i];
+                    break;
+            }
+        }
+        if (predictor != null && BranchUnit.create(predictor) == null) {
+            System.err.println("Unknown branch predictor: " + predictor + ", use static, 2bit or gshare");
+            System.exit(2);
+        }
+        // the pipeline writes neither undo records nor checkpoints, only the CPU does
+        if ((pipelined || predictor != null) && (undoRecords > 0 || checkpoint != null || stepBack > 0 || reverse != null)) {
+            System.err.println("-undo, -checkpoint, -back and -reverse run on the CPU, not with -p, -pt or -bp");
+            System.exit(2);
+        }
+        if ((pipelined || predictor != null) && tlb != null) {
+            System.err.println("-mmu translates the addresses of the CPU, the pipeline does not, not with -p, -pt or -bp");
+            System.exit(2);
+        }
+        if (program == null) {
+            System.err.println("Usage: java BatchRunner [-o file] [-save image] [-checkpoint instructions[,KB]] [-asm origin] [-trace file] [-mmu sets[,ways]] [-undo records [-back instructions] [-reverse pc1,pc2,...]] [-n n1,n2,...] [-t text] [-v] [-x] [-p | -pt [-spin]] [-bp static | 2bit | gshare] [-mem words] [-offheap] [-cache sets,ways,words] [-l1i sets,ways,words] [-l2 sets,ways,words] [-latency l1,l2,memory] [-prefetch | -iprefetch next | stride | stream[,degree,distance]] [-policy lru | plru | fifo | random | opt | all] [-wb] [-nwa] [-max instructions] [-time ms] <1 | 2 | text image | machine image | assembly source.asm>");
+            System.exit(2);
+        }
+
+        PrintStream printer = System.out;
+        try {
+            if (outputFile != null)
+                printer = new PrintStream(new FileOutputStream(outputFile), true);
+            // an assembly source of another name is assembled here, the runs load its image
+            if (origin >= 0)
+                program = Assembler.assembleCached(program, origin, Assembler.getCacheDir());
+            Vector<Vector<Character>> reference = BatchRunner.copyInputs(inputs);
+            BatchRunner runner = new BatchRunner(new StreamConsole(System.err, printer), verbose, inputs);
+            runner.getCPU().setTranslation(translate);
+            runner.setPipelined(pipelined || predictor != null, threaded, busySpin);
+            if (predictor != null)
+                runner.pipeline.setBranchUnit(BranchUnit.create(predictor));
+            runner.setBudget(maxInstructions, maxTime);
+            if (policy.equals("all")) {
+                comparePolicies(program, inputs, config, maxInstructions, maxTime);
+                return;
+            }
+            int[] optTrace = null;
+            if (policy.equals("opt")) {
+                BatchRunner recorder = withCache(program, BatchRunner.copyInputs(inputs), config, "fifo", null);
+                recorder.setBudget(maxInstructions, maxTime);
+                recorder.memory.startCacheTrace();
+                recorder.run();
+                optTrace = recorder.memory.stopCacheTrace();
+            }
+            config.apply(runner, policy, optTrace);
+            runner.load(program);
+            if (tlb != null)
+                runner.setMmu(tlb[0], tlb[1]);
+            if (checkpoint != null)
+                runner.setCheckpoints(checkpoint[0], checkpoint[1] * 1024);
+            if (undoRecords > 0)
+                runner.setTimeTravel(undoRecords);
+            TraceWriter trace = traceFile == null ? null : new TraceWriter(traceFile);
+            runner.cpu.setTrace(trace);
+            long start = System.nanoTime();
+            runner.run();
+            long time = System.nanoTime() - start;
+            printer.flush();
+            if (trace != null) {
+                runner.cpu.setTrace(null);
+                trace.close();
+                System.err.println(trace);
+            }
+            if (runner.timeTravel != null && (stepBack > 0 || reverse != null))
+                runner.goBack(stepBack, reverse);
+            if (saveFile != null)
+                MachineImage.save(saveFile, runner.cpu, runner.memory);
+            if (runner.pipeline != null) {
+                System.err.printf("%s: %s in %.3f ms%n", runner.getStatus(), runner.pipeline.getStatistics(), time / 1e6);
+                if (predictor != null)
+                    System.err.println(runner.pipeline.getBranchUnit().getReport(10));
+                runner.compare(program, reference, config, policy, optTrace);
+                return;
+            }
+            CPU cpu = runner.cpu;
+            System.err.printf("%s: %d instructions, %d cycles in %.3f ms (%.0f IPS)%n", runner.getStatus(),
+                    cpu.getInstructionCount(), cpu.getCycleCount(), time / 1e6,
+                    cpu.getHostNanos() == 0 ? 0 : cpu.getInstructionCount() * 1e9 / cpu.getHostNanos());
+            Memory memory = runner.memory;
+            memory.flush();
+            System.err.printf("Cache %s: %d hits, %d misses, %d stores written through, %d kept in the cache, %d write-backs%n",
+                    memory.getCache(), memory.getCacheHits(), memory.getCacheMisses(),
+                    memory.getWritesThrough(), memory.getWritesAvoided(), memory.getWriteBacks());
+            System.err.println(memory.getCacheReport());
+            if (cpu.getMmu() != null)
+                System.err.println(cpu.getMmu());
+            if (runner.checkpoints != null)
+                System.err.println(runner.checkpoints);
+            if (runner.timeTravel != null)
+                System.err.println(runner.timeTravel);
+        } catch (IOException e) {
+            System.err.println("IOException: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } finally {
+            if (printer != System.out)
+                printer.close();
+        }
+    }
+
+    // run the program silently with every replacement policy and print the hit rates
+    private static void comparePolicies(String program, Vector<Vector<Character>> inputs, MemoryConfig config,
+                                        long maxInstructions, Duration maxTime) throws IOException {
+        int[] optTrace = null;
+        int[] cache = config.cache;
+        System.err.printf("Cache %d sets x %d ways x %d words%n", cache[0], cache[1], cache[2]);
+        for (String policy : new String[]{"fifo", "lru", "plru", "random", "opt"}) {
+            BatchRunner runner = withCache(program, BatchRunner.copyInputs(inputs), config, policy, optTrace);
+            runner.setBudget(maxInstructions, maxTime);
+            // the FIFO run records the lookups for OPT, which comes last
+            if (optTrace == null)
+                runner.memory.startCacheTrace();
+            runner.run();
+            if (optTrace == null)
+                optTrace = runner.memory.stopCacheTrace();
+            Memory memory = runner.memory;
+            long lookups = memory.getCacheHits() + memory.getCacheMisses();
+            System.err.printf("%-10s %8d hits %8d misses %7.2f%% hit rate %10d cycles%n", memory.getCache().getPolicy().getName(),
+                    memory.getCacheHits(), memory.getCacheMisses(), lookups == 0 ? 0 : memory.getCacheHits() * 100.0 / lookups,
+                    runner.cpu.getCycleCount());
+        }
+    }
+
+    // a silent runner with the program loaded and the cache set up
+    private static BatchRunner withCache(String program, Vector<Vector<Character>> inputs, MemoryConfig config,
+                                         String policy, int[] optTrace) throws IOException {
+        BatchRunner runner = new BatchRunner(new BufferConsole(), false, inputs);
+        config.apply(runner, policy, optTrace);
+        runner.load(program);
+        return runner;
+    }
+
+    // parse three numbers separated by commas, missing ones are 0
+    private static int[] parseTriple(String s) {
+        String[] ss = s.split(",");
+        int[] n = new int[3];
+        for (int j = 0; j < 3 && j < ss.length; j++)
+            n[j] = Integer.parseInt(ss[j].trim());
+        return n;
+    }
+
+    // constructor
+    BatchRunner(Console console, boolean verbose, Vector<Vector<Character>> in) {
+        memory = new Memory();
+        cpu = new CPU(memory);
+        cpu.setConsole(console);
+        this.console = console;
+        if (verbose) {
+            events = new EventLog(4096);
+            events.setConsole(console);
+            memory.setEventLog(events);
+            cpu.setEventLog(events);
+        } else
+            events = null;
+        inputs = in;
+        maxInstructions = Long.MAX_VALUE;
+    }
+
+    // set the instruction and time budget of the whole run, time can be null
+    public void setBudget(long instructions, Duration time) {
+        maxInstructions = instructions;
+        maxTime = time;
+    }
+
+    public CPU getCPU() {
+        return cpu;
+    }
+
+    // run the program on the 5 stage pipeline instead of the CPU, in lockstep on this thread
+    // or with every stage on its own thread, which spins or yields when it has no work
+    public void setPipelined(boolean flag, boolean threads, boolean spin) {
+        threaded = threads;
+        busySpin = spin;
+        if (flag) {
+            bus = new PipelineBus(memory, console);
+            // latches of the threads hold more instructions so a stage can run ahead
+            pipeline = new Pipeline(bus, bus, threads ? 8 : 1);
+        } else {
+            bus = null;
+            pipeline = null;
+        }
+    }
+
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    // load a built-in test program, a text image file, a binary machine image or an assembly source
+    // a source is assembled once into an image of the cache, the next runs load that image
+    public void load(String program) throws IOException {
+        if (program.endsWith(".asm"))
+            program = Assembler.assembleCached(program, 0, Assembler.getCacheDir());
+        if (!program.equals("1") && !program.equals("2") && MachineImage.isImage(program)) {
+            // a saved machine goes on where it stopped, it is mapped unless the memory is set up,
+            // then its words are copied into that memory
+            MachineImage.load(program, cpu, memory, !configuredMemory);
+            return;
+        }
+        memory.loadROM();
+        cpu.clear();
+        switch (program) {
+            case "1":
+                memory.load1();
+                cpu.setRegister(7, (char) 61);
+                break;
+            case "2":
+                memory.load2();
+                cpu.setRegister(7, (char) 1000);
+                break;
+            default:
+                loadImage(program);
+                break;
+        }
+    }
+
+    // load a text image, every line is "address word" with the word in 16 bits binary,
+    // or "start address" to set the PC, "#" starts a comment
+    private void loadImage(String fileName) throws IOException {
+        memory.clearWithROM();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                line = line.trim();
+                if (line.length() == 0)
+                    continue;
+                String[] ss = line.split("\\s+");
+                if (ss.length != 2)
+                    throw new IOException(fileName + ":" + lineNumber + ": invalid line");
+                try {
+                    if (ss[0].equals("start"))
+                        cpu.setRegister(7, (char) Integer.parseInt(ss[1]));
+                    else
+                        memory.store(Integer.parseInt(ss[0]), (char) Integer.parseInt(ss[1], 2));
+                } catch (NumberFormatException e) {
+                    throw new IOException(fileName + ":" + lineNumber + ": invalid number");
+                }
+            }
+        }
+    }
+
+    // run until HLT, until the program waits for input that is not given or until a budget is used up
+    public void run() {
+        long deadline = maxTime == null ? 0 : System.nanoTime() + maxTime.toNanos();
+        if (pipeline != null) {
+            runPipeline(deadline);
+            return;
+        }
+        do {
+            long budget = maxInstructions - cpu.getInstructionCount();
+            if (budget <= 0)
+                break;
+            if (deadline != 0 && System.nanoTime() - deadline >= 0)
+                break;
+            runCPU(budget, deadline);
+        } while (cpu.isWaitingForInput() && !inputs.isEmpty() && setKeyboardInput(inputs.remove(0)));
+        if (events != null)
+            events.drain();
+    }
+
+    // run the CPU, with a checkpoint every checkpointInterval instructions if checkpoints are on
+    private void runCPU(long budget, long deadline) {
+        if (checkpoints == null) {
+            cpu.run(budget, deadline);
+            return;
+        }
+        while (budget > 0) {
+            long n = Math.min(budget, checkpointInterval - cpu.getInstructionCount() % checkpointInterval);
+            long before = cpu.getInstructionCount();
+            cpu.run(n, deadline);
+            long done = cpu.getInstructionCount() - before;
+            budget -= done;
+            if (done > 0 && cpu.getInstructionCount() % checkpointInterval == 0)
+                checkpoints.take();
+            // stopped by HLT, by IN or by the deadline
+            if (done < n || cpu.isHalted() || cpu.isWaitingForInput())
+                break;
+        }
+    }
+
+    // take a checkpoint every interval instructions the CPU runs, within the budget of bytes
+    // the first one is taken now
+    public void setCheckpoints(long interval, long budget) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Invalid checkpoint interval: " + interval);
+        if (checkpoints != null)
+            checkpoints.close();
+        checkpoints = new Checkpoints(cpu, memory, budget);
+        checkpointInterval = interval;
+        checkpoints.take();
+    }
+
+    public Checkpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    // run the program in virtual memory mapped to the same physical addresses, the page table
+    // takes the last page of memory, the TLB has sets * ways entries with LRU replacement
+    public void setMmu(int sets, int ways) {
+        Mmu mmu = new Mmu(memory, sets, ways, "lru", memory.size() - Mmu.PAGE_WORDS);
+        mmu.mapIdentity();
+        cpu.setMmu(mmu);
+    }
+
+    // give the next keyboard input, through the time travel so it can replay it
+    private boolean setKeyboardInput(Vector<Character> input) {
+        return timeTravel != null ? timeTravel.setKeyboardInput(input) : cpu.setKeyboardInput(input);
+    }
+
+    // keep an undo journal of the records to run backwards, with the checkpoints if they are on
+    public void setTimeTravel(int records) {
+        timeTravel = new TimeTravel(cpu, records, checkpoints, checkpointInterval);
+    }
+
+    public TimeTravel getTimeTravel() {
+        return timeTravel;
+    }
+
+    // step back a number of instructions, then reverse continue to a breakpoint at one of the
+    // addresses if there are some
+    private void goBack(long n, String breakpoints) {
+        long start = System.nanoTime();
+        if (n > 0)
+            timeTravel.stepBack(n);
+        boolean hit = false;
+        if (breakpoints != null) {
+            boolean[] at = new boolean[1 << 16];
+            for (String s : breakpoints.split(","))
+                at[Integer.parseInt(s.trim()) & 0xffff] = true;
+            hit = timeTravel.reverseContinue(at);
+        }
+        System.err.printf("Back to instruction %d, PC %d%s in %.3f ms%n", cpu.getInstructionCount(),
+                cpu.getRegister(7), breakpoints == null ? "" : hit ? " at a breakpoint" : ", no breakpoint",
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    // run on the pipeline, the instruction budget is counted in cycles in lockstep
+    private void runPipeline(long deadline) {
+        for (int i = 0; i < 13; i++)
+            pipeline.setRegister(i, (char) cpu.getRegister(i));
+        // the size of a slice of cycles between two checks of the deadline
+        long slice = 1 << 16;
+        while (!pipeline.isHalted()) {
+            long budget = maxInstructions - (threaded ? pipeline.getRetired() : pipeline.getCycles());
+            if (budget <= 0)
+                break;
+            if (deadline != 0 && System.nanoTime() - deadline >= 0)
+                break;
+            if (threaded)
+                pipeline.runThreaded(budget, deadline, busySpin);
+            else
+                pipeline.run(deadline == 0 ? budget : Math.min(budget, slice));
+            if (pipeline.isWaiting() && !(!inputs.isEmpty() && bus.setKeyboardInput(inputs.remove(0))))
+                break;
+        }
+        for (int i = 0; i < 13; i++)
+            cpu.setRegister(i, (char) pipeline.getRegister(i));
+        if (events != null)
+            events.drain();
+    }
+
+    // run the program again on the CPU with the same memory and check the pipeline ends with the same registers
+    private void compare(String program, Vector<Vector<Character>> in, MemoryConfig config, String policy,
+                         int[] optTrace) throws IOException {
+        BatchRunner reference = new BatchRunner(new BufferConsole(), false, in);
+        reference.setBudget(maxInstructions, maxTime);
+        config.apply(reference, policy, optTrace);
+        reference.load(program);
+        reference.run();
+        CPU ref = reference.cpu;
+        System.err.printf("Interpreter: %s: %d instructions, %d cycles%n", reference.getStatus(),
+                ref.getInstructionCount(), ref.getCycleCount());
+        // Reg, XReg, PC, IR and CC
+        for (int i = 0; i < 10; i++) {
+            if (ref.getRegister(i) != cpu.getRegister(i))
+                System.err.printf("Register %d differs: pipeline %d, interpreter %d%n", i, cpu.getRegister(i), ref.getRegister(i));
+        }
+    }
+
+    // describe how the run stopped
+    public String getStatus() {
+        if (pipeline != null)
+            return pipeline.isHalted() ? "Halted" : pipeline.isWaiting() ? "Waiting for input" : "Stopped";
+        if (cpu.isHalted())
+            return "Halted";
+        else if (cpu.isWaitingForInput())
+            return "Waiting for input";
+        else
+            return "Stopped";
+    }
+
+    // copy keyboard inputs, the CPU uses up the inputs it reads
+    static Vector<Vector<Character>> copyInputs(Vector<Vector<Character>> inputs) {
+        Vector<Vector<Character>> copy = new Vector<>();
+        for (Vector<Character> in : inputs)
+            copy.add(new Vector<>(in));
+        return copy;
+    }
+
+    // keyboard input of a number, same as typing the number in the UI
+    static Vector<Character> numberInput(int n) {
+        Vector<Character> in = new Vector<>();
+        in.add((char) n);
+        return in;
+    }
+
+    // keyboard input of a text, same as typing the text in the UI
+    static Vector<Character> textInput(String s) {
+        Vector<Character> in = new Vector<>();
+        for (int i = 0; i < s.length(); i++)
+            in.add(s.charAt(i));
+        in.add((char) 4);
+        return in;
+    }
+}
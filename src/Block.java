@@ -0,0 +1,100 @@
+// a compiled basic block, a straight run of instructions ending with a jump
+// the Translator generates a subclass of each hot block, its run method does the instructions
+// with the registers in locals, so HotSpot compiles the block like any other method
+// the generated classes are in a class loader of their own and only see the public members of the CPU
+public abstract class Block {
+    public final int start;    // address of the first instruction
+    public final Instruction[] code;    // instructions of the block, the block is valid while memory has them
+    public int epoch;    // code epoch of memory when the block was checked
+
+    // constructor
+    protected Block(int s, Instruction[] c, int e) {
+        start = s;
+        code = c;
+        epoch = e;
+    }
+
+    // run the instructions from the start, at most limit of them, and return the number retired
+    // the block leaves early after a machine fault or a store which changes some code
+    public abstract int run(CPU cpu, int limit);
+
+    // helpers of the generated code, the registers are the unsigned values of their 16 bits
+
+    // CC of AMR
+    protected static int addCC(int r, int m) {
+        int tmp = (short) r + (short) m;
+        return tmp > Short.MAX_VALUE ? 0b1000 : tmp < Short.MIN_VALUE ? 0b0100 : 0b0000;
+    }
+
+    // CC of SMR
+    protected static int subtractCC(int r, int m) {
+        int tmp = (short) r - (short) m;
+        return tmp > Short.MAX_VALUE ? 0b1000 : tmp < Short.MIN_VALUE ? 0b0100 : 0b0000;
+    }
+
+    // CC of AIR
+    protected static int addImmediateCC(int r, int immediate) {
+        return (short) r + immediate > Short.MAX_VALUE ? 0b1000 : 0b0000;
+    }
+
+    // CC of SIR
+    protected static int subtractImmediateCC(int r, int immediate) {
+        return (short) r - immediate < Short.MIN_VALUE ? 0b0100 : 0b0000;
+    }
+
+    // next PC of JZ
+    protected static int jumpIfZero(int r, int ea, int next) {
+        return r == 0 ? (char) ea : next;
+    }
+
+    // next PC of JNE
+    protected static int jumpIfNotZero(int r, int ea, int next) {
+        return r != 0 ? (char) ea : next;
+    }
+
+    // next PC of JCC, bit is the CC bit of the condition
+    protected static int jumpIfCC(int cc, int bit, int ea, int next) {
+        return cc == bit ? (char) ea : next;
+    }
+
+    // next PC of SOB after the decrement
+    protected static int jumpIfPositive(int r, int ea, int next) {
+        return (short) r > 0 ? (char) ea : next;
+    }
+
+    // next PC of JGE
+    protected static int jumpIfNotNegative(int r, int ea, int next) {
+        return (short) r >= 0 ? (char) ea : next;
+    }
+
+    // CC of DVD
+    protected static int divideCC(int divisor) {
+        return divisor == 0 ? 0b0010 : 0b0000;
+    }
+
+    // new rx of DVD, unchanged by a division by zero
+    protected static int quotient(int r, int divisor) {
+        return divisor == 0 ? r : (char) ((short) r / (short) divisor);
+    }
+
+    // new rx + 1 of DVD, unchanged by a division by zero
+    protected static int remainder(int r, int divisor, int old) {
+        return divisor == 0 ? old : (char) ((short) r % (short) divisor);
+    }
+
+    // CC of TRR
+    protected static int equalCC(int r, int s) {
+        return r == s ? 0b0001 : 0b0000;
+    }
+
+    // RRC, rotates count times as the interpreter does
+    protected static int rotate(int r, int count, boolean left) {
+        for (int i = 0; i < count; i++) {
+            if (left)
+                r = (char) (r << 1 | r >>> 15);
+            else
+                r = (char) (r >> 1 | (r & 1) << 15);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,627 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// generates the class file of a compiled block, a final subclass of Block
+// the class file is of version 49, so it is checked by the type inferring verifier and needs no stack map frames
+// every instruction fetches its word through the CPU, so the caches and the cycles are the ones of the interpreter,
+// the registers are kept in locals of run and written back to the CPU when the block leaves
+class BlockCompiler {
+    private static final int VERSION = 49;
+    private static final int RESERVED_MEMORY_BOUNDS = 27;
+
+    // locals of run
+    private static final int CPU_LOCAL = 1;
+    private static final int LIMIT = 2;
+    private static final int REGISTERS = 3;    // R0 - R3, then X1 - X3 at 7 - 9
+    private static final int CC = 10;
+    private static final int NEXT_PC = 11;    // PC after the last retired instruction
+    private static final int RETIRED = 12;    // instructions retired by the run
+    private static final int EPOCH = 13;    // code epoch of memory when the run started
+    private static final int EA = 14;    // EA of an instruction which is not known when it is compiled
+    private static final int T1 = 15;
+    private static final int T2 = 16;
+    private static final int LOCALS = 17;
+    private static final int STACK = 12;
+
+    // opcodes of the JVM
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD = 0x19;
+    private static final int ISTORE = 0x36;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int ISHL = 0x78;
+    private static final int ISHR = 0x7a;
+    private static final int IUSHR = 0x7c;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int IINC = 0x84;
+    private static final int I2C = 0x92;
+    private static final int I2S = 0x93;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    // a place in the code, the branches to it are patched when it is marked
+    private static class Label {
+        private int position = -1;
+        private final ArrayList<Integer> branches = new ArrayList<>();
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final HashMap<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+    private byte[] code = new byte[1024];
+    private int length;
+
+    // check if the compiled code can run the instruction, the others end a block
+    // and are left to the interpreter, as are HLT, TRAP, IN, OUT and illegal instructions
+    static boolean canCompile(Instruction in) {
+        switch (in.opcode) {
+            case 01: // LDR
+            case 03: // LDA
+            case 04: // AMR
+            case 05: // SMR
+            case 06: // AIR
+            case 07: // SIR
+            case 010: // JZ
+            case 011: // JNE
+            case 012: // JCC
+            case 013: // JMA
+            case 014: // JSR
+            case 015: // RFS
+            case 016: // SOB
+            case 017: // JGE
+            case 022: // TRR
+            case 023: // AND
+            case 024: // ORR
+            case 025: // NOT
+            case 031: // SRC
+            case 032: // RRC
+                return true;
+            case 02: // STR, a store to the reserved words always faults
+                return !isConstantEA(in) || in.addr > RESERVED_MEMORY_BOUNDS;
+            case 020: // MLT
+            case 021: // DVD
+                return in.reg < 3;
+            case 041: // LDX
+                return in.xreg != 0;
+            case 042: // STX
+                return in.xreg != 0 && (!isConstantEA(in) || in.addr > RESERVED_MEMORY_BOUNDS);
+            default:
+                return false;
+        }
+    }
+
+    // check if the EA of the instruction is its address field
+    private static boolean isConstantEA(Instruction in) {
+        return in.indexReg == 0 && !in.indirect;
+    }
+
+    // generate the class of the block of the instructions starting at the address
+    static byte[] compile(String name, int start, Instruction[] instructions) {
+        return new BlockCompiler().generate(name, start, instructions);
+    }
+
+    private byte[] generate(String name, int start, Instruction[] instructions) {
+        int thisClass = classConstant(name);
+        int superClass = classConstant("Block");
+        int init = method("Block", "<init>", "(I[LInstruction;I)V");
+        byte[] initCode = {0x2a, 0x1b, 0x2c, 0x1d, (byte) INVOKESPECIAL, (byte) (init >> 8), (byte) init, (byte) RETURN};
+        generateRun(start, instructions);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int codeName = utf8("Code");
+            int initName = utf8("<init>");
+            int initType = utf8("(I[LInstruction;I)V");
+            int runName = utf8("run");
+            int runType = utf8("(LCPU;I)I");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(0x0031);    // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);    // interfaces
+            out.writeShort(0);    // fields
+            out.writeShort(2);
+            writeMethod(out, initName, initType, codeName, 4, 4, initCode, initCode.length);
+            writeMethod(out, runName, runType, codeName, STACK, LOCALS, code, length);
+            out.writeShort(0);    // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // write a public method with its code
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeName, int maxStack, int maxLocals,
+                                    byte[] body, int bodyLength) throws IOException {
+        out.writeShort(0x0001);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + bodyLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bodyLength);
+        out.write(body, 0, bodyLength);
+        out.writeShort(0);    // exception table
+        out.writeShort(0);    // attributes
+    }
+
+    // the code of run(CPU cpu, int limit)
+    private void generateRun(int start, Instruction[] instructions) {
+        Label normal = new Label();
+        Label fault = new Label();
+        // the registers of the CPU into the locals
+        for (int i = 0; i < 7; i++) {
+            load(CPU_LOCAL);
+            push(i);
+            invoke(INVOKEVIRTUAL, "CPU", "getRegister", "(I)I");
+            store(REGISTERS + i);
+        }
+        load(CPU_LOCAL);
+        push(9);
+        invoke(INVOKEVIRTUAL, "CPU", "getRegister", "(I)I");
+        store(CC);
+        load(CPU_LOCAL);
+        invoke(INVOKEVIRTUAL, "CPU", "getCodeEpoch", "()I");
+        store(EPOCH);
+        push(start);
+        store(NEXT_PC);
+        for (int local : new int[]{RETIRED, EA, T1, T2}) {
+            push(0);
+            store(local);
+        }
+        for (int k = 0; k < instructions.length; k++) {
+            Instruction in = instructions[k];
+            int pc = start + k;
+            load(LIMIT);
+            load(RETIRED);
+            branch(IF_ICMPLE, normal);
+            load(CPU_LOCAL);
+            push(pc);
+            push(in.word);
+            invoke(INVOKEVIRTUAL, "CPU", "blockFetch", "(IC)V");
+            if (!isConstantEA(in)) {
+                push(in.addr);
+                if (in.indexReg != 0) {
+                    load(REGISTERS + 3 + in.indexReg);
+                    op(IADD);
+                }
+                store(EA);
+                if (in.indirect) {
+                    load(CPU_LOCAL);
+                    load(EA);
+                    loadMemory(fault);
+                    load(T1);
+                    store(EA);
+                }
+            }
+            boolean stores = instruction(in, (char) (pc + 1), fault);
+            load(CPU_LOCAL);
+            invoke(INVOKEVIRTUAL, "CPU", "blockRetire", "()V");
+            increment(RETIRED);
+            if (!(in.opcode >= 010 && in.opcode <= 017)) {
+                push((char) (pc + 1));
+                store(NEXT_PC);
+            }
+            // a store may have changed the instructions after it
+            if (stores) {
+                load(CPU_LOCAL);
+                invoke(INVOKEVIRTUAL, "CPU", "getCodeEpoch", "()I");
+                load(EPOCH);
+                branch(IF_ICMPNE, normal);
+            }
+        }
+        mark(normal);
+        leave(NEXT_PC);
+        // the fault has set PC, the faulting instruction is retired as in the interpreter
+        mark(fault);
+        load(CPU_LOCAL);
+        invoke(INVOKEVIRTUAL, "CPU", "blockRetire", "()V");
+        increment(RETIRED);
+        leave(-1);
+    }
+
+    // write the locals back to the CPU and return the instructions retired, PC is the local, or is kept if -1
+    private void leave(int pcLocal) {
+        load(CPU_LOCAL);
+        for (int i = 0; i < 8; i++)
+            load(REGISTERS + i);
+        if (pcLocal < 0)
+            push(-1);
+        else
+            load(pcLocal);
+        invoke(INVOKEVIRTUAL, "CPU", "blockLeave", "(IIIIIIIII)V");
+        load(RETIRED);
+        op(IRETURN);
+    }
+
+    // the code of the operation of an instruction, return true if it stores
+    private boolean instruction(Instruction in, int next, Label fault) {
+        int r = REGISTERS + in.reg;
+        int ry = REGISTERS + in.xreg;
+        int x = REGISTERS + 3 + in.xreg;
+        switch (in.opcode) {
+            case 01: // LDR
+                load(CPU_LOCAL);
+                pushEA(in);
+                loadMemory(fault);
+                load(T1);
+                store(r);
+                return false;
+            case 02: // STR
+                storeMemory(in, r, fault);
+                return true;
+            case 03: // LDA
+                pushEA(in);
+                op(I2C);
+                store(r);
+                return false;
+            case 04: // AMR
+            case 05: // SMR
+                load(CPU_LOCAL);
+                pushEA(in);
+                loadMemory(fault);
+                load(r);
+                load(T1);
+                invoke(INVOKESTATIC, "Block", in.opcode == 04 ? "addCC" : "subtractCC", "(II)I");
+                store(CC);
+                load(r);
+                load(T1);
+                op(in.opcode == 04 ? IADD : ISUB);
+                op(I2C);
+                store(r);
+                return false;
+            case 06: // AIR
+            case 07: // SIR
+                load(r);
+                push(in.addr);
+                invoke(INVOKESTATIC, "Block", in.opcode == 06 ? "addImmediateCC" : "subtractImmediateCC", "(II)I");
+                store(CC);
+                load(r);
+                push(in.addr);
+                op(in.opcode == 06 ? IADD : ISUB);
+                op(I2C);
+                store(r);
+                return false;
+            case 010: // JZ
+            case 011: // JNE
+            case 017: // JGE
+                load(r);
+                pushEA(in);
+                push(next);
+                invoke(INVOKESTATIC, "Block",
+                        in.opcode == 010 ? "jumpIfZero" : in.opcode == 011 ? "jumpIfNotZero" : "jumpIfNotNegative", "(III)I");
+                store(NEXT_PC);
+                return false;
+            case 012: // JCC
+                load(CC);
+                push(1 << (3 - in.reg));
+                pushEA(in);
+                push(next);
+                invoke(INVOKESTATIC, "Block", "jumpIfCC", "(IIII)I");
+                store(NEXT_PC);
+                return false;
+            case 013: // JMA
+                pushEA(in);
+                op(I2C);
+                store(NEXT_PC);
+                return false;
+            case 014: // JSR
+                push(next);
+                store(REGISTERS + 3);
+                pushEA(in);
+                op(I2C);
+                store(NEXT_PC);
+                return false;
+            case 015: // RFS
+                push(in.addr);
+                store(REGISTERS);
+                load(REGISTERS + 3);
+                store(NEXT_PC);
+                return false;
+            case 016: // SOB
+                load(r);
+                op(I2S);
+                push(1);
+                op(ISUB);
+                op(I2C);
+                store(r);
+                load(r);
+                pushEA(in);
+                push(next);
+                invoke(INVOKESTATIC, "Block", "jumpIfPositive", "(III)I");
+                store(NEXT_PC);
+                return false;
+            case 020: // MLT
+                load(r);
+                op(I2S);
+                load(ry);
+                op(I2S);
+                op(IMUL);
+                store(T1);
+                push(0);
+                store(CC);
+                load(T1);
+                push(16);
+                op(IUSHR);
+                op(I2C);
+                store(r);
+                load(T1);
+                op(I2C);
+                store(r + 1);
+                return false;
+            case 021: // DVD
+                load(ry);
+                invoke(INVOKESTATIC, "Block", "divideCC", "(I)I");
+                store(CC);
+                load(r);
+                load(ry);
+                invoke(INVOKESTATIC, "Block", "quotient", "(II)I");
+                store(T1);
+                load(r);
+                load(ry);
+                load(r + 1);
+                invoke(INVOKESTATIC, "Block", "remainder", "(III)I");
+                store(T2);
+                load(T1);
+                store(r);
+                load(T2);
+                store(r + 1);
+                return false;
+            case 022: // TRR
+                load(r);
+                load(ry);
+                invoke(INVOKESTATIC, "Block", "equalCC", "(II)I");
+                store(CC);
+                return false;
+            case 023: // AND
+            case 024: // ORR
+                load(r);
+                load(ry);
+                op(in.opcode == 023 ? IAND : IOR);
+                store(r);
+                return false;
+            case 025: // NOT
+                load(r);
+                push(-1);
+                op(IXOR);
+                op(I2C);
+                store(r);
+                return false;
+            case 031: // SRC
+                load(r);
+                if (in.leftShift) {
+                    push(in.addr);
+                    op(ISHL);
+                } else {
+                    op(I2S);
+                    push(in.addr);
+                    op(ISHR);
+                }
+                op(I2C);
+                store(r);
+                return false;
+            case 032: // RRC
+                load(r);
+                push(in.addr);
+                push(in.leftShift ? 1 : 0);
+                invoke(INVOKESTATIC, "Block", "rotate", "(IIZ)I");
+                store(r);
+                return false;
+            case 041: // LDX
+                load(CPU_LOCAL);
+                pushEA(in);
+                loadMemory(fault);
+                load(T1);
+                store(x);
+                return false;
+            case 042: // STX
+                storeMemory(in, x, fault);
+                return true;
+            default:
+                throw new IllegalArgumentException("Cannot compile opcode " + in.opcode);
+        }
+    }
+
+    // push the EA of the instruction
+    private void pushEA(Instruction in) {
+        if (isConstantEA(in))
+            push(in.addr);
+        else
+            load(EA);
+    }
+
+    // load the word at the address on the stack, over the CPU, into T1, leave by the fault label if it faults
+    private void loadMemory(Label fault) {
+        invoke(INVOKEVIRTUAL, "CPU", "load", "(I)I");
+        store(T1);
+        load(T1);
+        push(Integer.MIN_VALUE);
+        branch(IF_ICMPEQ, fault);
+    }
+
+    // store the register at EA, a reserved word is a machine fault as in the interpreter
+    private void storeMemory(Instruction in, int register, Label fault) {
+        if (!isConstantEA(in)) {
+            Label ok = new Label();
+            load(EA);
+            op(I2C);
+            push(RESERVED_MEMORY_BOUNDS);
+            branch(IF_ICMPGT, ok);
+            load(CPU_LOCAL);
+            push(0);
+            invoke(INVOKEVIRTUAL, "CPU", "handleMachineFault", "(I)V");
+            branch(GOTO, fault);
+            mark(ok);
+        }
+        load(CPU_LOCAL);
+        pushEA(in);
+        load(register);
+        invoke(INVOKEVIRTUAL, "CPU", "store", "(IC)I");
+        push(Integer.MIN_VALUE);
+        branch(IF_ICMPEQ, fault);
+    }
+
+    // emitting the code
+
+    private void op(int b) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    private void op2(int opcode, int operand) {
+        op(opcode);
+        op(operand >> 8);
+        op(operand);
+    }
+
+    private void load(int local) {
+        op(local == CPU_LOCAL ? ALOAD : ILOAD);
+        op(local);
+    }
+
+    private void store(int local) {
+        op(ISTORE);
+        op(local);
+    }
+
+    private void increment(int local) {
+        op(IINC);
+        op(local);
+        op(1);
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5)
+            op(ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            op(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            op2(SIPUSH, value);
+        else
+            op2(LDC_W, integerConstant(value));
+    }
+
+    private void invoke(int opcode, String owner, String name, String type) {
+        op2(opcode, method(owner, name, type));
+    }
+
+    private void branch(int opcode, Label target) {
+        target.branches.add(length);
+        op2(opcode, 0);
+        if (target.position >= 0)
+            patch(target);
+    }
+
+    private void mark(Label label) {
+        label.position = length;
+        patch(label);
+    }
+
+    private void patch(Label label) {
+        for (int at : label.branches) {
+            int offset = label.position - at;
+            code[at + 1] = (byte) (offset >> 8);
+            code[at + 2] = (byte) offset;
+        }
+        label.branches.clear();
+    }
+
+    // the constant pool, each constant is written once
+
+    // get the index of a constant written before, 0 if it is new
+    private int find(String key) {
+        Integer index = constants.get(key);
+        return index == null ? 0 : index;
+    }
+
+    // give the next index to a constant about to be written
+    private int add(String key) {
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private void poolShort(int value) {
+        poolBytes.write(value >> 8);
+        poolBytes.write(value);
+    }
+
+    private int utf8(String s) {
+        int index = find("U" + s);
+        if (index != 0)
+            return index;
+        // the names are ASCII, so UTF-8 is the modified UTF-8 of class files
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        poolBytes.write(1);
+        poolShort(b.length);
+        poolBytes.write(b, 0, b.length);
+        return add("U" + s);
+    }
+
+    private int integerConstant(int value) {
+        int index = find("I" + value);
+        if (index != 0)
+            return index;
+        poolBytes.write(3);
+        poolShort(value >>> 16);
+        poolShort(value);
+        return add("I" + value);
+    }
+
+    private int classConstant(String name) {
+        int index = find("C" + name);
+        if (index != 0)
+            return index;
+        int utf = utf8(name);
+        poolBytes.write(7);
+        poolShort(utf);
+        return add("C" + name);
+    }
+
+    private int method(String owner, String name, String type) {
+        int index = find("M" + owner + "." + name + type);
+        if (index != 0)
+            return index;
+        int ownerIndex = classConstant(owner);
+        int nameAndType = find("N" + name + type);
+        if (nameAndType == 0) {
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            poolBytes.write(12);
+            poolShort(nameIndex);
+            poolShort(typeIndex);
+            nameAndType = add("N" + name + type);
+        }
+        poolBytes.write(10);
+        poolShort(ownerIndex);
+        poolShort(nameAndType);
+        return add("M" + owner + "." + name + type);
+    }
+}
@@ -0,0 +1,19 @@
+// console which keeps the printer output in memory, the log is dropped
+public class BufferConsole implements Console {
+    private final StringBuilder output = new StringBuilder();    // printer output
+
+    public void log(String s) {
+    }
+
+    public void error(String s) {
+    }
+
+    public void print(String s) {
+        output.append(s);
+    }
+
+    // get the printer output
+    public String getOutput() {
+        return output.toString();
+    }
+}
@@ -1,16 +1,50 @@
-import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Vector;
 
-import javax.swing.JTextPane;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.Document;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
+public class CPU implements Runnable {
+    // memory address bounds of the reserved part
+    private static final int RESERVED_MEMORY_BOUNDS = 27;
 
-public class CPU extends Thread {
+    // handler of each opcode
+    private static final InstructionHandler[] HANDLERS = new InstructionHandler[64];
+
+    static {
+        Arrays.fill(HANDLERS, (InstructionHandler) CPU::illegal);
+        HANDLERS[0] = CPU::hlt;
+        HANDLERS[01] = CPU::ldr;
+        HANDLERS[02] = CPU::str;
+        HANDLERS[03] = CPU::lda;
+        HANDLERS[04] = CPU::amr;
+        HANDLERS[05] = CPU::smr;
+        HANDLERS[06] = CPU::air;
+        HANDLERS[07] = CPU::sir;
+        HANDLERS[010] = CPU::jz;
+        HANDLERS[011] = CPU::jne;
+        HANDLERS[012] = CPU::jcc;
+        HANDLERS[013] = CPU::jma;
+        HANDLERS[014] = CPU::jsr;
+        HANDLERS[015] = CPU::rfs;
+        HANDLERS[016] = CPU::sob;
+        HANDLERS[017] = CPU::jge;
+        HANDLERS[020] = CPU::mlt;
+        HANDLERS[021] = CPU::dvd;
+        HANDLERS[022] = CPU::trr;
+        HANDLERS[023] = CPU::and;
+        HANDLERS[024] = CPU::orr;
+        HANDLERS[025] = CPU::not;
+        HANDLERS[031] = CPU::src;
+        HANDLERS[032] = CPU::rrc;
+        HANDLERS[036] = CPU::trap;
+        HANDLERS[041] = CPU::ldx;
+        HANDLERS[042] = CPU::stx;
+        HANDLERS[061] = CPU::in;
+        HANDLERS[062] = CPU::out;
+    }
     private final Memory memory;    // reference of memory
-    private JTextPane printerTextPane; //reference of printer console in UI
-    private JTextPane logTextPane;    // reference of log console in UI
+    private Console console;    // reference of the printer console, null when nobody listens
+    private EventLog events;    // execution event log, null when nobody listens
 
     private char[] Reg;    // General Purpose Register (GPR) 16 bits
     private char[] XReg;    // Index Register (XR) 16 bits
@@ -24,6 +58,25 @@ public class CPU extends Thread {
     private Vector<Character> keyboardInput;    // number from the UI input console
     private int inputFlag;    // mark if the CPU is waiting for user to input a number
 
+    private long instructionCount;    // number of instructions retired since the last clear
+    private long cycleCount;    // simulated cycles since the last clear, one per instruction plus memory cycles
+    private long hostNanos;    // host time spent in run since the last clear
+    private long lastRunInstructions;    // instructions retired by the last run
+    private long lastRunNanos;    // host time of the last run
+
+    private Translator translator;    // block translator, null to use the interpreter only
+    private Mmu mmu;    // virtual memory of the loads, stores and fetches, null when addresses are physical
+    private TraceWriter trace;    // binary trace of the instructions and accesses, null when not tracing
+
+    private UndoJournal journal;    // undo records of the instructions run, null when they are not kept
+    private final char[] undoRegisters = new char[13];    // registers before the instruction being journalled
+    private final char[] shownRegisters = new char[13];    // registers when the display last took the changes
+    private boolean registersShown;    // false until the first take, every register is changed then
+    private int undoInputFlag;
+    private int undoInputs;    // pending keyboard chars before the instruction
+    private char undoInput;    // first of them
+    private long undoCycles;
+
     // constructor
     CPU(Memory mem) {
         memory = mem;
@@ -39,425 +92,550 @@ public class CPU extends Thread {
 
     // run the CPU until PC go to the HLT address
     public void run() {
-        do {
-            stepRun();
+        run(Long.MAX_VALUE, 0);
+    }
+
+    // run the CPU until HLT or until the number of instructions have been retired
+    public void run(long maxInstructions) {
+        run(maxInstructions, 0);
+    }
+
+    // run the CPU until HLT or until the time is over
+    public void run(Duration time) {
+        run(Long.MAX_VALUE, System.nanoTime() + time.toNanos());
+    }
+
+    // run the CPU until HLT, waiting for input, the instruction budget is used up
+    // or the deadline (host nano time, 0 for none) is passed
+    public void run(long maxInstructions, long deadline) {
+        long start = System.nanoTime();
+        long first = instructionCount;
+        long budget = maxInstructions;
+        int check = 0;
+        while (budget > 0) {
+            // blocks are neither journalled, translated, traced nor logged, so the interpreter runs with any of them
+            Block b = translator == null || journal != null || mmu != null || trace != null || events != null
+                    ? null : translator.getBlock(PC);
+            if (b != null)
+                budget -= b.run(this, (int) Math.min(budget, Integer.MAX_VALUE));
+            else {
+                stepRun();
+                budget--;
+            }
             // if need a input from user, stop and wait
-            if (inputFlag == -1)
+            if (inputFlag == -1 || IR == 0)
                 break;
-        } while (IR != 0);
+            // check the clock once in a while only
+            if (deadline != 0 && ++check == 256) {
+                check = 0;
+                if (System.nanoTime() - deadline >= 0)
+                    break;
+            }
+        }
+        lastRunNanos = System.nanoTime() - start;
+        lastRunInstructions = instructionCount - first;
+        hostNanos += lastRunNanos;
     }
 
     // run step by step
     public void stepRun() {
-        IR = (char) load(PC);
-        runInstruction();
+        if (journal != null)
+            beginUndo();
+        // the decoded instructions are kept by physical address
+        int address = mmu == null ? PC : translate(PC, false);
+        int tmp = address < 0 ? Integer.MIN_VALUE : fetch(address);
+        // a fetch which faults has already gone to the fault handler at PC 1, nothing is executed
+        // and IR keeps the last instruction, so the machine does not look halted
+        if (tmp != Integer.MIN_VALUE) {
+            IR = (char) tmp;
+            // use the decoded instruction of this word if it has been decoded before
+            Instruction in = memory.getDecoded(address);
+            if (in == null) {
+                in = new Instruction(IR);
+                memory.setDecoded(address, in);
+            }
+            execute(in);
+        }
+        // an IN waiting for input is run again when the input comes, it is counted then
+        boolean counted = inputFlag != -1;
+        if (counted) {
+            instructionCount++;
+            cycleCount++;
+        }
+        if (journal != null)
+            endUndo(counted);
+    }
+
+    // interface of the compiled blocks, their classes only see the public members
+    // a block keeps the registers in locals while it runs and leaves them to the CPU when it leaves
+
+    // fetch the word of an instruction of a block, PC and IR are the ones of the instruction
+    public void blockFetch(int pc, char word) {
+        PC = (char) pc;
+        fetch(pc);
+        IR = word;
+    }
+
+    // an instruction of a block is retired
+    public void blockRetire() {
+        instructionCount++;
+        cycleCount++;
+    }
+
+    // take the registers of a block which leaves, a PC of -1 keeps the one a machine fault has set
+    public void blockLeave(int r0, int r1, int r2, int r3, int x1, int x2, int x3, int cc, int pc) {
+        Reg[0] = (char) r0;
+        Reg[1] = (char) r1;
+        Reg[2] = (char) r2;
+        Reg[3] = (char) r3;
+        XReg[0] = (char) x1;
+        XReg[1] = (char) x2;
+        XReg[2] = (char) x3;
+        CC = (char) cc;
+        if (pc >= 0)
+            PC = (char) pc;
+    }
+
+    // get the code epoch of the memory, a block leaves when a store changes it
+    public int getCodeEpoch() {
+        return memory.getCodeEpoch();
+    }
+
+    // switch between the interpreter and the block translator, which compiles the hot blocks into JVM classes
+    public void setTranslation(boolean flag) {
+        translator = flag ? new Translator(memory) : null;
+    }
+
+    public boolean isTranslation() {
+        return translator != null;
     }
 
     // run one instruction
     public void runInstruction() {
-        //decode the instruction
-        int opcode, reg, xreg, I, Addr, EA, L_R, Immed, code, devID;
-        opcode = IR >> 10;
-        reg = (IR & 0x0300) >> 8;
-        xreg = (IR & 0x00C0) >> 6;
-        L_R = xreg & 0b01;
-        I = (IR & 0x0020) >> 5;
-        Addr = IR & 0x001F;
-        Immed = Addr;
-        code = Addr;
-        devID = Addr;
+        if (journal != null)
+            beginUndo();
+        execute(new Instruction(IR));
+        if (journal != null)
+            endUndo(false);
+    }
 
+    // keep undo records of the instructions run from now on to step back, null to stop
+    public void setUndoJournal(UndoJournal j) {
+        journal = j;
+        memory.setJournal(j);
+    }
+
+    public UndoJournal getUndoJournal() {
+        return journal;
+    }
+
+    // remember the state an instruction is going to change
+    private void beginUndo() {
+        for (int i = 0; i < 13; i++)
+            undoRegisters[i] = (char) getRegister(i);
+        undoInputFlag = inputFlag;
+        undoInputs = keyboardInput.size();
+        undoInput = undoInputs == 0 ? 0 : keyboardInput.get(0);
+        undoCycles = cycleCount;
+    }
+
+    // journal what the instruction has changed, the stores are journalled by the memory
+    private void endUndo(boolean counted) {
+        for (int i = 0; i < 7; i++)
+            if (getRegister(i) != undoRegisters[i])
+                journal.register(i, undoRegisters[i]);
+        if (keyboardInput.size() < undoInputs)
+            journal.input(undoInput);
+        journal.step(undoRegisters[7], undoRegisters[8], undoRegisters[9], undoRegisters[12],
+                undoRegisters[10], undoRegisters[11], undoInputFlag, counted, cycleCount - undoCycles);
+    }
+
+    // go back n instructions with the undo journal, return the number of instructions gone back
+    // output printed by them stays printed
+    public long stepBack(long n) {
+        long done = 0;
+        while (done < n && journal != null && journal.getSteps() > 0) {
+            long step = journal.pop();
+            long registers = journal.pop();
+            PC = (char) registers;
+            IR = (char) (registers >>> 16);
+            CC = (char) (registers >>> 32);
+            MFR = (char) (registers >>> 48);
+            MAR = (char) step;
+            MBR = (char) (step >>> 16);
+            cycleCount -= (step >>> 32) & 0xffffff;
+            inputFlag = (int) ((step >>> 56) & 3) - 1;
+            if ((step & 1L << 58) != 0) {
+                instructionCount--;
+                done++;
+            }
+            while (!journal.atStep()) {
+                long record = journal.pop();
+                int index = (int) (record >>> 16);
+                char old = (char) record;
+                switch (UndoJournal.kind(record)) {
+                    case UndoJournal.MEMORY:
+                        memory.store(index, old);
+                        break;
+                    case UndoJournal.REGISTER:
+                        if (index < 4)
+                            Reg[index] = old;
+                        else
+                            XReg[index - 4] = old;
+                        break;
+                    case UndoJournal.INPUT:
+                        keyboardInput.add(0, old);
+                        break;
+                }
+            }
+            journal.popped();
+        }
+        // the page table may have been put back
+        if (mmu != null && done > 0)
+            mmu.flush();
+        return done;
+    }
+
+    // run a decoded instruction
+    private void execute(Instruction in) {
         // calculate the EA (effective address)
-        if (opcode != 041 && opcode != 042 && xreg != 0)
-            EA = XReg[xreg - 1];
-        else
-            EA = 0;
-        EA += Addr;
-        if (I == 1) {
-            int tmp = load(EA);
-            if (tmp == Integer.MIN_VALUE)
+        int EA = in.addr;
+        if (in.indexReg != 0)
+            EA += XReg[in.indexReg - 1];
+        if (in.indirect) {
+            if (load(EA) == Integer.MIN_VALUE)
                 return;
             else
                 EA = MBR;
         }
-        // switch to each instruction
-        // memory address bounds of the reserved part
-        int reservedMemoryBounds = 27;
-        switch (opcode) {
-            case 0: // HLT
-            {
-                printLog("HLT: PC = " + (int) PC);
-                break;
-            }
-            case 01: // LDR
-            {
-                int tmp = load(EA);
-                if (tmp == Integer.MIN_VALUE)
-                    return;
-                else {
-                    Reg[reg] = MBR;
-                    PC++;
-                    printLog("LDR: Reg[" + reg + "] = " + (int) Reg[reg]);
-                }
-                break;
-            }
-            case 02: // STR
-            {
-                MAR = (char) EA;
-                if (MAR <= reservedMemoryBounds)
-                    handleMachineFault(0);
-                else {
-                    if (store(EA, Reg[reg]) == Integer.MIN_VALUE)
-                        return;
-                    else {
-                        PC++;
-                        printLog("STR: Memory[" + EA + "] = " + (int) Reg[reg]);
-                    }
-                    break;
-                }
-            }
-            case 03: // LDA
-            {
-                Reg[reg] = (char) EA;
-                PC++;
-                printLog("LDA: Reg[" + reg + "] = " + EA);
-                break;
-            }
-            case 04: // AMR
-            {
-                int tmp = load(EA);
-                if (tmp == Integer.MIN_VALUE)
-                    return;
-                else {
-                    short r = (short) Reg[reg];
-                    short m = (short) MBR;
-                    tmp = r + m;
-                    String s = "";
-                    if (tmp > Short.MAX_VALUE) {
-                        CC = 0b1000;
-                        s += " Result OVERFLOW";
-                    } else if (tmp < Short.MIN_VALUE) {
-                        CC = 0b0100;
-                        s += " Result UNDERFLOW";
-                    } else
-                        CC = 0b0000;
-                    Reg[reg] += MBR;
-                    PC++;
-                    printLog("AMR: Reg[" + reg + "] = " + (int) Reg[reg] + s);
-                    break;
-                }
-            }
-            case 05: // SMR
-            {
-                int tmp = load(EA);
-                if (tmp == Integer.MIN_VALUE)
-                    return;
-                else {
-                    short r = (short) Reg[reg];
-                    short m = (short) MBR;
-                    tmp = r - m;
-                    String s = "";
-                    if (tmp > Short.MAX_VALUE) {
-                        CC = 0b1000;
-                        s += " Result OVERFLOW";
-                    } else if (tmp < Short.MIN_VALUE) {
-                        CC = 0b0100;
-                        s += " Result UNDERFLOW";
-                    } else
-                        CC = 0b0000;
-                    Reg[reg] -= MBR;
-                    PC++;
-                    printLog("SMR: Reg[" + reg + "] = " + (int) Reg[reg] + s);
-                    break;
-                }
-            }
-            case 06: // AIR
-            {
-                short r = (short) Reg[reg];
-                int tmp = r + Immed;
-                String s = "";
-                if (tmp > Short.MAX_VALUE) {
-                    CC = 0b1000;
-                    s += " Result OVERFLOW";
-                } else CC = 0b0000;
-                Reg[reg] += Immed;
-                PC++;
-                printLog("AIR: Reg[" + reg + "] = " + (int) Reg[reg] + s);
-                break;
-            }
-            case 07: // SIR
-            {
-                short r = (short) Reg[reg];
-                int tmp = r - Immed;
-                String s = "";
-                if (tmp < Short.MIN_VALUE) {
-                    CC = 0b0100;
-                    s += " Result UNDERFLOW";
-                } else
-                    CC = 0b0000;
-                Reg[reg] = (char) tmp;
-                PC++;
-                printLog("SIR: Reg[" + reg + "] = " + (int) Reg[reg] + s);
-                break;
-            }
-            case 010: // JZ
-            {
-                if (Reg[reg] == 0) {
-                    PC = (char) EA;
-                    printLog("JZ: Jump To " + (int) PC);
-                } else {
-                    PC++;
-                    printLog("JZ: Not Jump");
-                }
-                break;
-            }
-            case 011: // JNE
-            {
-                if (Reg[reg] != 0) {
-                    PC = (char) EA;
-                    printLog("JNE: Jump To " + (int) PC);
-                } else {
-                    PC++;
-                    printLog("JNE: Not Jump");
-                }
-                break;
-            }
-            case 012: // JCC
-            {
-                int tmp = 1 << (3 - reg);
-                if ((int) CC == tmp) {
-                    PC = (char) EA;
-                    printLog("JCC: Jump To " + (int) PC);
-                } else {
-                    PC++;
-                    printLog("JCC: Not Jump");
-                }
-                break;
-            }
-            case 013: // JMA
-            {
-                PC = (char) EA;
-                printLog("JMA: Jump To " + (int) PC);
-                break;
-            }
-            case 014: // JSR
-            {
-                Reg[3] = (char) (PC + 1);
-                PC = (char) EA;
-                printLog("JSR: Reg[3] = " + (int) Reg[3] + " Jump To " + (int) PC);
-                break;
-            }
-            case 015: // RFS
-            {
-                Reg[0] = (char) Immed;
-                PC = Reg[3];
-                printLog("RFS: Reg[0] = " + (int) Reg[0] + " Return To " + (int) PC);
-                break;
-            }
-            case 016: // SOB
-            {
-                short r = (short) Reg[reg];
-                r--;
-                Reg[reg] = (char) r;
-                if (r > 0) {
-                    PC = (char) EA;
-                    printLog("SOB: Reg[" + reg + "] = " + (int) Reg[reg] + " Branch To " + (int) PC);
-                } else {
-                    PC++;
-                    printLog("SOB: Reg[" + reg + "] = " + (int) Reg[reg] + " Not Branch");
-                }
-                break;
-            }
-            case 017: // JGE
-            {
-                short r = (short) Reg[reg];
-                if (r >= 0) {
-                    PC = (char) EA;
-                    printLog("JGE: Jump To " + (int) PC);
-                } else {
-                    PC++;
-                    printLog("JGE: Not Jump");
-                }
-                break;
-            }
-            case 020: // MLT
-            {
-                short r1 = (short) Reg[reg];
-                short r2 = (short) Reg[xreg];
-                long result = r1 * r2;
-                String s = "";
+        // the load of an indirect address is traced before its instruction
+        if (trace != null)
+            trace.instruction(PC, IR, EA);
+        in.handler.execute(this, in, EA);
+    }
+
+    // handler of each instruction, called with the decoded instruction and EA
+
+    private void hlt(Instruction in, int EA) {
+        log(in.opcode, PC, 0, 0, 0);
+    }
+
+    private void ldr(Instruction in, int EA) {
+        int pc = PC;
+        if (load(EA) != Integer.MIN_VALUE) {
+            Reg[in.reg] = MBR;
+            PC++;
+            log(in.opcode, pc, in.reg, Reg[in.reg], 0);
+        }
+    }
+
+    private void str(Instruction in, int EA) {
+        int pc = PC;
+        MAR = (char) EA;
+        if (MAR <= RESERVED_MEMORY_BOUNDS)
+            handleMachineFault(0);
+        else if (store(EA, Reg[in.reg]) != Integer.MIN_VALUE) {
+            PC++;
+            log(in.opcode, pc, EA, Reg[in.reg], 0);
+        }
+    }
+
+    private void lda(Instruction in, int EA) {
+        Reg[in.reg] = (char) EA;
+        PC++;
+        log(in.opcode, PC - 1, in.reg, EA, 0);
+    }
+
+    private void amr(Instruction in, int EA) {
+        int pc = PC;
+        if (load(EA) != Integer.MIN_VALUE) {
+            int tmp = (short) Reg[in.reg] + (short) MBR;
+            if (tmp > Short.MAX_VALUE)
+                CC = 0b1000;
+            else if (tmp < Short.MIN_VALUE)
+                CC = 0b0100;
+            else
                 CC = 0b0000;
-                int re = (int) result;
-                Reg[reg] = (char) (re >>> 16);
-                Reg[reg + 1] = (char) (re & 0x0000FFFF);
-                PC++;
-                printLog("MLT: Reg[" + reg + "] = " + (int) Reg[reg]);
-                printLog("     Reg[" + (reg + 1) + "] = " + (int) Reg[reg + 1] + s);
-                break;
-            }
-            case 021: // DVD
-            {
-                if (Reg[xreg] == 0) {
-                    CC = 0b0010;
-                    printLog("DVD: DIVZERO");
-                } else {
-                    CC = 0b0000;
-                    short r1 = (short) Reg[reg];
-                    short r2 = (short) Reg[xreg];
-                    int quotient = r1 / r2;
-                    int remainder = r1 % r2;
-                    Reg[reg] = (char) quotient;
-                    Reg[reg + 1] = (char) remainder;
-                    printLog("DVD: Reg[" + reg + "] = " + (int) Reg[reg]);
-                    printLog("     Reg[" + (reg + 1) + "] = " + (int) Reg[reg + 1]);
-                }
-                PC++;
-                break;
-            }
-            case 022: // TRR
-            {
-                String s = "";
-                if (Reg[reg] == Reg[xreg]) {
-                    CC = 0b0001;
-                    s += " Equal";
-                } else {
-                    CC = 0b0000;
-                    s += " Not Equal";
-                }
-                PC++;
-                printLog("TRR: CC = " + (int) CC + s);
-                break;
-            }
-            case 023: // AND
-            {
-                Reg[reg] &= Reg[xreg];
-                PC++;
-                printLog("AND: Reg[" + reg + "] = " + (int) Reg[reg]);
-                break;
-            }
-            case 024: // ORR
-            {
-                Reg[reg] |= Reg[xreg];
-                PC++;
-                printLog("ORR: Reg[" + reg + "] = " + (int) Reg[reg]);
-                break;
-            }
-            case 025: // NOT
-            {
-                Reg[reg] = (char) ~Reg[reg];
-                PC++;
-                printLog("NOT: Reg[" + reg + "] = " + (int) Reg[reg]);
-                break;
-            }
-            case 031: // SRC
-            {
-                short r = (short) Reg[reg];
-                if (L_R == 1)
-                    r = (short) (r << Addr);
-                else
-                    r = (short) (r >> Addr);
-                Reg[reg] = (char) r;
-                PC++;
-                printLog("SRC: Reg[" + reg + "] = " + (int) Reg[reg]);
-                break;
-            }
-            case 032: // RRC
-            {
-                if (L_R == 1) {
-                    int flag;
-                    for (int i = 0; i < Addr; i++) {
-                        flag = ((Reg[reg] & 0x8000) == 0) ? 0 : 1;
-                        Reg[reg] = (char) (Reg[reg] << 1);
-                        Reg[reg] = (char) (Reg[reg] | flag);
-                    }
-                } else {
-                    int flag;
-                    for (int i = 0; i < Addr; i++) {
-                        flag = ((Reg[reg] & 1) == 0) ? 0x0000 : 0x8000;
-                        Reg[reg] = (char) (Reg[reg] >> 1);
-                        Reg[reg] = (char) (Reg[reg] | flag);
-                    }
-                }
-                PC++;
-                printLog("RRC: Reg[" + reg + "] = " + (int) Reg[reg]);
-                break;
-            }
-            case 036: // TRAP
-            {
-                store(2, (char) (PC + 1));
-                PC = 0;
-                printLog("TRAP: code = " + code);
-                // the size of trap entries table
-                int trapCodeRange = 8;
-                if (code > trapCodeRange)
-                    handleMachineFault(1);
-                else
-                    PC = (char) (load(PC) + code);
-                break;
-            }
-            case 041: // LDX
-            {
-                int tmp = load(EA);
-                if (tmp == Integer.MIN_VALUE)
-                    return;
-                else {
-                    XReg[xreg - 1] = MBR;
-                    PC++;
-                    printLog("LDX: XReg[" + xreg + "] = " + (int) XReg[xreg - 1]);
-                    break;
-                }
-            }
-            case 042: // STX
-            {
-                MAR = (char) EA;
-                if (MAR <= reservedMemoryBounds)
-                    handleMachineFault(0);
-                else {
-                    if (store(EA, XReg[xreg - 1]) == Integer.MIN_VALUE)
-                        return;
-                    else {
-                        PC++;
-                        printLog("STX: Memory[" + EA + "] = " + (int) XReg[xreg - 1]);
-                    }
-                }
-                break;
-            }
-            case 061: // IN
-            {
-                if (!keyboardInput.isEmpty()) {
-                    if (devID == 0)
-                        Reg[reg] = keyboardInput.get(0);
-                    keyboardInput.remove(0);
-                    PC++;
-                    printLog("IN: Reg[" + reg + "] = " + (int) Reg[reg]);
-                    inputFlag = 0;
-                } else {
-                    inputFlag = -1;
-                    printLog("Waiting for input for keyboard");
-                }
-                break;
-            }
-            case 062: // OUT
-            {
-                printLog("OUT");
-                if (devID == 1)
-                    print("" + Reg[reg]);
-                else if (devID == 2)
-                    print("" + (int) Reg[reg]);
-                PC++;
-                break;
+            Reg[in.reg] += MBR;
+            PC++;
+            log(in.opcode, pc, in.reg, Reg[in.reg], 0);
+        }
+    }
+
+    private void smr(Instruction in, int EA) {
+        int pc = PC;
+        if (load(EA) != Integer.MIN_VALUE) {
+            int tmp = (short) Reg[in.reg] - (short) MBR;
+            if (tmp > Short.MAX_VALUE)
+                CC = 0b1000;
+            else if (tmp < Short.MIN_VALUE)
+                CC = 0b0100;
+            else
+                CC = 0b0000;
+            Reg[in.reg] -= MBR;
+            PC++;
+            log(in.opcode, pc, in.reg, Reg[in.reg], 0);
+        }
+    }
+
+    private void air(Instruction in, int EA) {
+        int tmp = (short) Reg[in.reg] + in.addr;
+        if (tmp > Short.MAX_VALUE)
+            CC = 0b1000;
+        else
+            CC = 0b0000;
+        Reg[in.reg] += in.addr;
+        PC++;
+        log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+    }
+
+    private void sir(Instruction in, int EA) {
+        int tmp = (short) Reg[in.reg] - in.addr;
+        if (tmp < Short.MIN_VALUE)
+            CC = 0b0100;
+        else
+            CC = 0b0000;
+        Reg[in.reg] = (char) tmp;
+        PC++;
+        log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+    }
+
+    private void jz(Instruction in, int EA) {
+        branch(in, Reg[in.reg] == 0, EA);
+    }
+
+    private void jne(Instruction in, int EA) {
+        branch(in, Reg[in.reg] != 0, EA);
+    }
+
+    private void jcc(Instruction in, int EA) {
+        branch(in, CC == 1 << (3 - in.reg), EA);
+    }
+
+    private void jma(Instruction in, int EA) {
+        branch(in, true, EA);
+    }
+
+    private void jge(Instruction in, int EA) {
+        branch(in, (short) Reg[in.reg] >= 0, EA);
+    }
+
+    // jump to EA if the condition is true
+    private void branch(Instruction in, boolean condition, int EA) {
+        int pc = PC;
+        if (condition) {
+            PC = (char) EA;
+            log(in.opcode, pc, 0, 0, PC);
+        } else {
+            PC++;
+            log(in.opcode, pc, 0, 0, -1);
+        }
+    }
+
+    private void jsr(Instruction in, int EA) {
+        int pc = PC;
+        Reg[3] = (char) (PC + 1);
+        PC = (char) EA;
+        log(in.opcode, pc, 3, Reg[3], PC);
+    }
+
+    private void rfs(Instruction in, int EA) {
+        int pc = PC;
+        Reg[0] = (char) in.addr;
+        PC = Reg[3];
+        log(in.opcode, pc, 0, Reg[0], PC);
+    }
+
+    private void sob(Instruction in, int EA) {
+        int pc = PC;
+        short r = (short) Reg[in.reg];
+        r--;
+        Reg[in.reg] = (char) r;
+        if (r > 0) {
+            PC = (char) EA;
+            log(in.opcode, pc, in.reg, Reg[in.reg], PC);
+        } else {
+            PC++;
+            log(in.opcode, pc, in.reg, Reg[in.reg], -1);
+        }
+    }
+
+    private void mlt(Instruction in, int EA) {
+        int reg = in.reg;
+        int re = (short) Reg[reg] * (short) Reg[in.xreg];
+        CC = 0b0000;
+        Reg[reg] = (char) (re >>> 16);
+        Reg[reg + 1] = (char) (re & 0x0000FFFF);
+        PC++;
+        log(in.opcode, PC - 1, reg, Reg[reg], Reg[reg + 1]);
+    }
+
+    private void dvd(Instruction in, int EA) {
+        int reg = in.reg;
+        if (Reg[in.xreg] == 0) {
+            CC = 0b0010;
+            log(in.opcode, PC, reg, 0, 0);
+        } else {
+            CC = 0b0000;
+            short r1 = (short) Reg[reg];
+            short r2 = (short) Reg[in.xreg];
+            Reg[reg] = (char) (r1 / r2);
+            Reg[reg + 1] = (char) (r1 % r2);
+            log(in.opcode, PC, reg, Reg[reg], Reg[reg + 1]);
+        }
+        PC++;
+    }
+
+    private void trr(Instruction in, int EA) {
+        if (Reg[in.reg] == Reg[in.xreg])
+            CC = 0b0001;
+        else
+            CC = 0b0000;
+        PC++;
+        log(in.opcode, PC - 1, 0, 0, 0);
+    }
+
+    private void and(Instruction in, int EA) {
+        Reg[in.reg] &= Reg[in.xreg];
+        PC++;
+        log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+    }
+
+    private void orr(Instruction in, int EA) {
+        Reg[in.reg] |= Reg[in.xreg];
+        PC++;
+        log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+    }
+
+    private void not(Instruction in, int EA) {
+        Reg[in.reg] = (char) ~Reg[in.reg];
+        PC++;
+        log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+    }
+
+    private void src(Instruction in, int EA) {
+        short r = (short) Reg[in.reg];
+        if (in.leftShift)
+            r = (short) (r << in.addr);
+        else
+            r = (short) (r >> in.addr);
+        Reg[in.reg] = (char) r;
+        PC++;
+        log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+    }
+
+    private void rrc(Instruction in, int EA) {
+        int reg = in.reg;
+        int flag;
+        if (in.leftShift) {
+            for (int i = 0; i < in.addr; i++) {
+                flag = ((Reg[reg] & 0x8000) == 0) ? 0 : 1;
+                Reg[reg] = (char) (Reg[reg] << 1);
+                Reg[reg] = (char) (Reg[reg] | flag);
             }
-            default: {
-                handleMachineFault(2);
-                break;
+        } else {
+            for (int i = 0; i < in.addr; i++) {
+                flag = ((Reg[reg] & 1) == 0) ? 0x0000 : 0x8000;
+                Reg[reg] = (char) (Reg[reg] >> 1);
+                Reg[reg] = (char) (Reg[reg] | flag);
             }
         }
+        PC++;
+        log(in.opcode, PC - 1, reg, Reg[reg], 0);
+    }
+
+    private void trap(Instruction in, int EA) {
+        int pc = PC;
+        int code = in.addr;
+        if (code == Mmu.SWITCH_TRAP && mmu != null) {
+            // switch to the page table at the frame in R0, the TLB is flushed
+            mmu.setPageTable(Reg[0] << Mmu.PAGE_BITS);
+            PC++;
+            log(in.opcode, pc, code, 0, 0);
+            return;
+        }
+        store(2, (char) (PC + 1));
+        PC = 0;
+        log(in.opcode, pc, code, 0, 0);
+        // the size of trap entries table
+        int trapCodeRange = 8;
+        if (code > trapCodeRange)
+            handleMachineFault(1);
+        else
+            PC = (char) (load(PC) + code);
+    }
+
+    private void ldx(Instruction in, int EA) {
+        int pc = PC;
+        if (load(EA) != Integer.MIN_VALUE) {
+            XReg[in.xreg - 1] = MBR;
+            PC++;
+            log(in.opcode, pc, in.xreg, XReg[in.xreg - 1], 0);
+        }
+    }
+
+    private void stx(Instruction in, int EA) {
+        int pc = PC;
+        MAR = (char) EA;
+        if (MAR <= RESERVED_MEMORY_BOUNDS)
+            handleMachineFault(0);
+        else if (store(EA, XReg[in.xreg - 1]) != Integer.MIN_VALUE) {
+            PC++;
+            log(in.opcode, pc, EA, XReg[in.xreg - 1], 0);
+        }
+    }
+
+    private void in(Instruction in, int EA) {
+        if (!keyboardInput.isEmpty()) {
+            if (in.addr == 0)
+                Reg[in.reg] = keyboardInput.get(0);
+            keyboardInput.remove(0);
+            PC++;
+            log(in.opcode, PC - 1, in.reg, Reg[in.reg], 0);
+            inputFlag = 0;
+        } else {
+            inputFlag = -1;
+            log(EventLog.WAIT, PC, 0, 0, 0);
+        }
+    }
+
+    private void out(Instruction in, int EA) {
+        log(in.opcode, PC, in.reg, Reg[in.reg], 0);
+        if (in.addr == 1)
+            print("" + Reg[in.reg]);
+        else if (in.addr == 2)
+            print("" + (int) Reg[in.reg]);
+        PC++;
+    }
+
+    private void illegal(Instruction in, int EA) {
+        handleMachineFault(2);
     }
 
     // load value from memory
     public int load(int address) {
         MAR = (char) address;
+        memory.setContext(PC, cycleCount);
+        if (mmu != null && (address = translate(address, false)) < 0)
+            return Integer.MIN_VALUE;
         int tmp = memory.loadCache(address);
+        cycleCount += memory.getLatency();
+        if (tmp == Integer.MIN_VALUE)
+            handleMachineFault(3);
+        else {
+            MBR = (char) tmp;
+            if (trace != null)
+                trace.load(address, MBR);
+        }
+        return tmp;
+    }
+
+    // fetch an instruction word through the instruction cache, the address is physical
+    public int fetch(int address) {
+        MAR = (char) address;
+        memory.setContext(PC, cycleCount);
+        int tmp = memory.fetchCache(address);
+        cycleCount += memory.getLatency();
         if (tmp == Integer.MIN_VALUE)
             handleMachineFault(3);
         else
@@ -470,18 +648,65 @@ public class CPU extends Thread {
         // check if address and value are valid
         MAR = (char) address;
         MBR = value;
+        memory.setContext(PC, cycleCount);
+        if (mmu != null && (address = translate(address, true)) < 0)
+            return Integer.MIN_VALUE;
         int tmp = memory.storeCache(address, value);
+        cycleCount += memory.getLatency();
         if (tmp == Integer.MIN_VALUE)
             handleMachineFault(3);
+        else {
+            if (mmu != null)
+                mmu.written(address);
+            if (trace != null)
+                trace.store(address, value);
+        }
         return tmp;
     }
 
+    // translate a virtual address with the MMU, return -1 after a page fault if it is not mapped
+    // a page fault is the memory fault with the virtual address at location 5,
+    // the faulting instruction is at the address before the one at location 4
+    private int translate(int address, boolean write) {
+        int physical = mmu.translate(address, write);
+        cycleCount += mmu.getLatency();
+        if (physical < 0) {
+            store(5, (char) address);
+            handleMachineFault(3);
+        }
+        return physical;
+    }
+
+    // put an MMU between the CPU and the memory, null to use physical addresses
+    public void setMmu(Mmu m) {
+        mmu = m;
+    }
+
+    public Mmu getMmu() {
+        return mmu;
+    }
+
+    // write a trace of the instructions and the loads and stores with their physical addresses, null to stop
+    public void setTrace(TraceWriter t) {
+        trace = t;
+    }
+
+    public TraceWriter getTrace() {
+        return trace;
+    }
+
     // handle machine fault
     public void handleMachineFault(int id) {
         store(4, (char) (PC + 1));
         PC = 1;
         MFR = (char) (1 << id);
-        printLog("Machine Fault: MFR = " + (int) MFR);
+        if (events != null)
+            events.record(EventLog.FAULT, PC, MFR, 0, CC, 0);
+    }
+
+    // get the handler of an opcode
+    static InstructionHandler getHandler(int opcode) {
+        return HANDLERS[opcode];
     }
 
     // for the outside to set the IR value
@@ -549,6 +774,20 @@ public class CPU extends Thread {
         printLog("Set " + s + " = " + (int) value);
     }
 
+    // get a bit of each register index changed since the last call, all of them the first time
+    public int takeChangedRegisters() {
+        int changed = 0;
+        for (int i = 0; i < 13; i++) {
+            char value = (char) getRegister(i);
+            if (!registersShown || value != shownRegisters[i]) {
+                changed |= 1 << i;
+                shownRegisters[i] = value;
+            }
+        }
+        registersShown = true;
+        return changed;
+    }
+
     // for out side to get registers value
     public int getRegister(int index) {
         switch (index) {
@@ -584,13 +823,58 @@ public class CPU extends Thread {
         // set when get a input from keyboard panel
     }
 
-    // set the input from keyboard
-    public void setKeyboardInput(Vector<Character> key) {
+    // check if the CPU is stopped and waiting for the keyboard
+    public boolean isWaitingForInput() {
+        return inputFlag == -1;
+    }
+
+    // check if the CPU has executed HLT
+    public boolean isHalted() {
+        return IR == 0 && instructionCount > 0;
+    }
+
+    // get the number of instructions retired since the last clear
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    // get the simulated cycles since the last clear
+    public long getCycleCount() {
+        return cycleCount;
+    }
+
+    // get the host time spent in run since the last clear
+    public long getHostNanos() {
+        return hostNanos;
+    }
+
+    // get the number of instructions retired by the last run
+    public long getLastRunInstructions() {
+        return lastRunInstructions;
+    }
+
+    // get the instructions per second of the last run
+    public double getInstructionsPerSecond() {
+        return lastRunNanos == 0 ? 0 : lastRunInstructions * 1e9 / lastRunNanos;
+    }
+
+    // get the statistics of the last run and the totals since the last clear
+    public String getStatistics() {
+        return String.format("%d instructions in %.3f ms (%.0f IPS), total %d instructions, %d cycles, CPI %.2f, cache %d hits %d misses",
+                lastRunInstructions, lastRunNanos / 1e6, getInstructionsPerSecond(),
+                instructionCount, cycleCount, instructionCount == 0 ? 0 : (double) cycleCount / instructionCount,
+                memory.getCacheHits(), memory.getCacheMisses());
+    }
+
+    // set the input from keyboard, return false if the CPU is not waiting for input
+    // the CPU has to be run again to use the input
+    public boolean setKeyboardInput(Vector<Character> key) {
         if (inputFlag == -1) {
             keyboardInput = key;
             inputFlag = 1;
-            run();
+            return true;
         }
+        return false;
     }
 
     // set the input from card reader
@@ -609,6 +893,44 @@ public class CPU extends Thread {
         }
     }
 
+    // write the registers, the input state and the counters, for a machine image
+    public void writeState(ByteBuffer b) {
+        for (int i = 0; i < 13; i++)
+            b.putChar((char) getRegister(i));
+        b.putInt(inputFlag);
+        b.putLong(instructionCount);
+        b.putLong(cycleCount);
+        b.putInt(keyboardInput.size());
+        for (char c : keyboardInput)
+            b.putChar(c);
+    }
+
+    // get the number of bytes writeState writes
+    public int getStateSize() {
+        return 13 * 2 + 4 + 8 + 8 + 4 + keyboardInput.size() * 2;
+    }
+
+    // read the state written by writeState, the CPU goes on from where it was
+    public void readState(ByteBuffer b) {
+        clear();
+        Reg = new char[]{b.getChar(), b.getChar(), b.getChar(), b.getChar()};
+        XReg = new char[]{b.getChar(), b.getChar(), b.getChar()};
+        PC = b.getChar();
+        IR = b.getChar();
+        CC = b.getChar();
+        MAR = b.getChar();
+        MBR = b.getChar();
+        MFR = b.getChar();
+        inputFlag = b.getInt();
+        instructionCount = b.getLong();
+        cycleCount = b.getLong();
+        int n = b.getInt();
+        for (int i = 0; i < n; i++)
+            keyboardInput.add(b.getChar());
+        if (translator != null)
+            translator.clear();
+    }
+
     // clear the CPU, reset all values to initial state
     public void clear() {
         Reg = new char[]{0, 0, 0, 0};
@@ -617,45 +939,50 @@ public class CPU extends Thread {
         MAR = MBR = MFR = 0;
         keyboardInput = new Vector<>();
         inputFlag = 0;
+        instructionCount = 0;
+        cycleCount = 0;
+        hostNanos = 0;
+        lastRunInstructions = 0;
+        lastRunNanos = 0;
+        if (journal != null)
+            journal.clear();
+        if (mmu != null)
+            mmu.flush();
+    }
+
+    // set the printer console reference
+    public void setConsole(Console c) {
+        console = c;
     }
 
-    //set printer console reference
-    public void setPrinterTextPane(JTextPane printer) {
-        printerTextPane = printer;
+    public Console getConsole() {
+        return console;
     }
 
     // print to printer
     public void print(String s) {
-        Document doc = printerTextPane.getDocument();
-        SimpleAttributeSet attrSet = new SimpleAttributeSet();
-        StyleConstants.setForeground(attrSet, Color.BLUE);
-        try {
-            doc.insertString(doc.getLength(), s, attrSet);
-        } catch (BadLocationException e) {
-            System.out.println("BadLocationException: " + e);
-        }
-        logTextPane.setCaretPosition(doc.getLength());
+        if (console != null)
+            console.print(s);
+    }
+
+    // set the event log reference
+    public void setEventLog(EventLog log) {
+        events = log;
     }
 
-    // set the log console reference
-    public void setTextPane(JTextPane log) {
-        logTextPane = log;
+    public EventLog getEventLog() {
+        return events;
+    }
+
+    // record an event of an instruction into the event log
+    private void log(int kind, int pc, int a, int b, int c) {
+        if (events != null)
+            events.record(kind, pc, a, b, CC, c);
     }
 
     // print log of CPU
     public void printLog(String s) {
-        Document doc = logTextPane.getDocument();
-        s = "\n" + s;
-        SimpleAttributeSet attrSet = null;
-        if (s.contains("Error") || s.contains("Fault")) {
-            attrSet = new SimpleAttributeSet();
-            StyleConstants.setForeground(attrSet, Color.RED);
-        }
-        try {
-            doc.insertString(doc.getLength(), s, attrSet);
-        } catch (BadLocationException e) {
-            System.out.println("BadLocationException: " + e);
-        }
-        logTextPane.setCaretPosition(doc.getLength());
+        if (events != null)
+            events.message(s);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,272 @@
+import java.util.Arrays;
+
+// set associative cache of memory words, tags, valid bits and data are kept in flat arrays
+// a line holds lineWords words aligned to its size, a line is placed in the set
+// (address / lineWords) % sets, an empty way is filled first, else the policy chooses
+// a dirty line is written back by the owner before its slot is filled again
+public class Cache {
+    private final int sets;
+    private final int ways;
+    private final int lineWords;
+    private final int offsetBits;    // log2 of lineWords
+    private final int setMask;
+
+    private final int[] tags;    // line address (address / lineWords) of each slot, set * ways + way
+    private final boolean[] valid;
+    private final boolean[] dirty;    // the line has been written and memory does not have it yet
+    private final char[] data;    // words of each slot, slot * lineWords + offset
+    private final long[] ready;    // cycle a prefetched line arrives, -1 if the line was not prefetched or has been used
+    private final ReplacementPolicy policy;
+    private final int setBits;    // log2 of sets
+    private final int hintMask;    // hints of a set - 1
+    private final int[] hints;    // slot a line was last found in, by set and the low bits of the line above the set
+
+    private int[] trace;    // word address of every lookup while recording, null if not recording
+    private int traceLength;
+
+    private long hits;
+    private long misses;
+
+    // constructor with FIFO replacement, sets and lineWords have to be powers of 2
+    Cache(int sets, int ways, int lineWords) {
+        this(sets, ways, lineWords, "fifo", null);
+    }
+
+    // constructor with the policy of the name: lru, plru, fifo, random or opt,
+    // opt needs the trace of the word addresses of all lookups recorded before
+    Cache(int sets, int ways, int lineWords, String policyName, int[] optTrace) {
+        if (Integer.bitCount(sets) != 1 || Integer.bitCount(lineWords) != 1 || ways < 1)
+            throw new IllegalArgumentException("Invalid cache geometry: " + sets + " sets, " + ways + " ways, " + lineWords + " words");
+        this.sets = sets;
+        this.ways = ways;
+        this.lineWords = lineWords;
+        offsetBits = Integer.numberOfTrailingZeros(lineWords);
+        setMask = sets - 1;
+        tags = new int[sets * ways];
+        valid = new boolean[sets * ways];
+        dirty = new boolean[sets * ways];
+        data = new char[sets * ways * lineWords];
+        ready = new long[sets * ways];
+        Arrays.fill(ready, -1);
+        setBits = Integer.numberOfTrailingZeros(sets);
+        int hintsPerSet = Integer.highestOneBit(ways * 2 - 1);
+        hintMask = hintsPerSet - 1;
+        hints = new int[sets * hintsPerSet];
+        policy = createPolicy(policyName, sets, ways, lineWords, optTrace);
+    }
+
+    // create a replacement policy
+    private static ReplacementPolicy createPolicy(String name, int sets, int ways, int lineWords, int[] optTrace) {
+        switch (name) {
+            case "lru":
+                return new LruPolicy(sets, ways);
+            case "plru":
+                return new TreePlruPolicy(sets, ways);
+            case "fifo":
+                return new FifoPolicy(sets, ways);
+            case "random":
+                return new RandomPolicy(sets, ways);
+            case "opt":
+                if (optTrace == null)
+                    throw new IllegalArgumentException("OPT replacement needs a trace");
+                return new OptimalPolicy(sets, ways, lineWords, optTrace);
+            default:
+                throw new IllegalArgumentException("Unknown replacement policy: " + name);
+        }
+    }
+
+    // find the slot holding the address, -1 if it is not cached, hits and misses are not counted
+    // the slot the line was found in last time is tried first, a line is only in its own set,
+    // so a hint of a line gone or of another line sharing it just fails the check
+    public int find(int address) {
+        int line = address >>> offsetBits;
+        int set = line & setMask;
+        int hint = set * (hintMask + 1) + (line >>> setBits & hintMask);
+        int slot = hints[hint];
+        if (valid[slot] && tags[slot] == line)
+            return slot;
+        int base = set * ways;
+        for (int i = base; i < base + ways; i++) {
+            if (valid[i] && tags[i] == line) {
+                hints[hint] = i;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // find the slot holding the address and count a hit or a miss, -1 on a miss
+    public int lookup(int address) {
+        if (trace != null)
+            record(address);
+        policy.access(address >>> offsetBits);
+        int slot = find(address);
+        if (slot < 0)
+            misses++;
+        else {
+            hits++;
+            policy.touch(slot / ways, slot % ways);
+        }
+        return slot;
+    }
+
+    // choose the slot to bring the line of the address in, an empty way or the victim of the policy
+    public int victim(int address) {
+        int set = (address >>> offsetBits) & setMask;
+        int base = set * ways;
+        for (int i = base; i < base + ways; i++) {
+            if (!valid[i])
+                return i;
+        }
+        return base + policy.victim(set);
+    }
+
+    // bring the line of the address in from memory, the slot has to be written back before if dirty
+    public void fill(int slot, int address, MemoryBackend memory) {
+        place(slot, address);
+        // a line past the end of a memory of an odd size is cut short
+        int base = (address >>> offsetBits) << offsetBits;
+        memory.read(base, data, slot * lineWords, Math.min(lineWords, memory.size() - base));
+    }
+
+    // give the slot to the line of the address, its words are written by the caller
+    // for caches of other things than memory words, like a TLB
+    public void place(int slot, int address) {
+        tags[slot] = address >>> offsetBits;
+        valid[slot] = true;
+        dirty[slot] = false;
+        ready[slot] = -1;
+        policy.fill(slot / ways, slot % ways, tags[slot]);
+    }
+
+    // drop the line of one slot without writing it back
+    public void drop(int slot) {
+        valid[slot] = false;
+        dirty[slot] = false;
+        ready[slot] = -1;
+    }
+
+    // mark the line just brought into the slot as prefetched, it arrives at the cycle
+    public void setPrefetched(int slot, long cycle) {
+        ready[slot] = cycle;
+    }
+
+    // check if the slot holds a prefetched line no demand access has used yet
+    public boolean isPrefetched(int slot) {
+        return valid[slot] && ready[slot] >= 0;
+    }
+
+    // a demand access uses the prefetched line of the slot, return the cycle it arrives
+    public long usePrefetched(int slot) {
+        long cycle = ready[slot];
+        ready[slot] = -1;
+        return cycle;
+    }
+
+    // check if the slot holds a line
+    public boolean isValid(int slot) {
+        return valid[slot];
+    }
+
+    // get the word address of the line in the slot
+    public int getAddress(int slot) {
+        return tags[slot] << offsetBits;
+    }
+
+    // check if the slot holds a line memory does not have
+    public boolean isDirty(int slot) {
+        return valid[slot] && dirty[slot];
+    }
+
+    public void setDirty(int slot) {
+        dirty[slot] = true;
+    }
+
+    // copy the line of the slot back to memory, it is clean afterwards
+    public void writeBack(int slot, MemoryBackend memory) {
+        int base = tags[slot] << offsetBits;
+        memory.write(base, data, slot * lineWords, Math.min(lineWords, memory.size() - base));
+        dirty[slot] = false;
+    }
+
+    // get the number of slots, sets * ways
+    public int getSlots() {
+        return tags.length;
+    }
+
+    // read the word of the address from a slot holding it
+    public char read(int slot, int address) {
+        return data[slot * lineWords + (address & (lineWords - 1))];
+    }
+
+    // write the word of the address into a slot holding it
+    public void write(int slot, int address, char value) {
+        data[slot * lineWords + (address & (lineWords - 1))] = value;
+    }
+
+    // drop all lines without writing them back, the counters are kept
+    public void invalidate() {
+        Arrays.fill(valid, false);
+        Arrays.fill(dirty, false);
+        Arrays.fill(ready, -1);
+        policy.clear();
+    }
+
+    // drop all lines and reset the counters
+    public void clear() {
+        Arrays.fill(valid, false);
+        Arrays.fill(dirty, false);
+        Arrays.fill(ready, -1);
+        policy.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    // start recording the word address of every lookup, for OPT replacement of a later run
+    public void startRecording() {
+        trace = new int[1024];
+        traceLength = 0;
+    }
+
+    // stop recording and get the addresses
+    public int[] stopRecording() {
+        int[] t = trace == null ? new int[0] : Arrays.copyOf(trace, traceLength);
+        trace = null;
+        return t;
+    }
+
+    private void record(int address) {
+        if (traceLength == trace.length)
+            trace = Arrays.copyOf(trace, trace.length * 2);
+        trace[traceLength++] = address;
+    }
+
+    public int getSets() {
+        return sets;
+    }
+
+    public int getWays() {
+        return ways;
+    }
+
+    public int getLineWords() {
+        return lineWords;
+    }
+
+    public ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    // describe the geometry
+    public String toString() {
+        return sets + " sets x " + ways + " ways x " + lineWords + " words, " + policy.getName();
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// miss rates of many cache geometries and replacement policies from one trace of TraceWriter
+// the addresses of the trace are read once, then every configuration is run over them
+// LRU is done by stack distances (Mattson et al.): LRU keeps the lines of a set in the order of
+// their last use and a cache of more ways holds the same lines and more, so one pass over
+// the stacks of a set count and a line size gives the misses of every number of ways
+// the other policies have no such property, every configuration is simulated with a Cache
+// the passes run on a fork join pool, one task a pass
+// write policies are not modelled, a store is looked up and filled like a load
+public class CacheSweep {
+    private static final String[] POLICIES = {"lru", "plru", "fifo", "random", "opt"};
+
+    private final int[] addresses;    // word address of every access
+    private final ForkJoinPool pool;
+
+    // constructor, run at most threads passes at the same time
+    CacheSweep(int[] addresses, int threads) {
+        this.addresses = addresses;
+        pool = new ForkJoinPool(threads);
+    }
+
+    // main entrance
+    public static void main(String[] args) {
+        int[] sets = {1, 256};
+        int[] ways = {1, 16};
+        int[] words = {1, 16};
+        String[] policies = POLICIES;
+        boolean fetches = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String fileName = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-sets":
+                        sets = range(args[++i]);
+                        break;
+                    case "-ways":
+                        ways = range(args[++i]);
+                        break;
+                    case "-words":
+                        words = range(args[++i]);
+                        break;
+                    case "-policy":
+                        if (!args[++i].equals("all"))
+                            policies = args[i].split(",");
+                        break;
+                    case "-fetch":
+                        fetches = true;
+                        break;
+                    case "-j":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        fileName = args[i];
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            fileName = null;
+        }
+        if (fileName == null) {
+            System.err.println("Usage: java CacheSweep [-sets min,max] [-ways min,max] [-words min,max] [-policy lru,plru,fifo,random,opt | all] [-fetch] [-j threads] trace");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        int[] trace = null;
+        try {
+            trace = read(fileName, fetches);
+        } catch (IOException e) {
+            System.err.println("IOException: " + e.getMessage());
+            System.exit(1);
+        }
+        long read = System.nanoTime();
+        CacheSweep sweep = new CacheSweep(trace, threads);
+        try {
+            System.out.print(sweep.run(sets, ways, words, policies));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } finally {
+            sweep.shutdown();
+        }
+        long end = System.nanoTime();
+        System.out.printf("%d accesses read in %.3f ms, swept in %.3f ms%n", trace.length,
+                (read - start) / 1e6, (end - read) / 1e6);
+    }
+
+    // parse min,max of powers of 2
+    private static int[] range(String s) {
+        String[] parts = s.split(",");
+        int min = Integer.parseInt(parts[0].trim());
+        int max = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : min;
+        if (Integer.bitCount(min) != 1 || Integer.bitCount(max) != 1 || min > max)
+            throw new IllegalArgumentException("Invalid range: " + s);
+        return new int[]{min, max};
+    }
+
+    // read the word addresses of the loads and stores of a trace, and of the fetches if asked
+    static int[] read(String fileName, boolean fetches) throws IOException {
+        int[] addresses = new int[1 << 16];
+        int n = 0;
+        try (TraceReader reader = new TraceReader(fileName)) {
+            int kind;
+            while ((kind = reader.next()) >= 0) {
+                if (kind == TraceWriter.INSTRUCTION && !fetches)
+                    continue;
+                if (n == addresses.length)
+                    addresses = Arrays.copyOf(addresses, n * 2);
+                addresses[n++] = kind == TraceWriter.INSTRUCTION ? reader.getPc() : reader.getAddress();
+            }
+        }
+        return Arrays.copyOf(addresses, n);
+    }
+
+    // sweep the powers of 2 of each range with each policy and build the table of the miss rates
+    public String run(int[] sets, int[] ways, int[] words, String[] policies) {
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for (int w = words[0]; w <= words[1]; w <<= 1) {
+            for (int s = sets[0]; s <= sets[1]; s <<= 1) {
+                for (String policy : policies) {
+                    int lineWords = w;
+                    int setCount = s;
+                    if (policy.equals("lru"))
+                        tasks.add(() -> stackDistances(setCount, ways[1], lineWords));
+                    else {
+                        for (int a = ways[0]; a <= ways[1]; a <<= 1) {
+                            int wayCount = a;
+                            tasks.add(() -> new long[]{simulate(setCount, wayCount, lineWords, policy)});
+                        }
+                    }
+                }
+            }
+        }
+        List<long[]> results = new ArrayList<>();
+        for (Future<long[]> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                if (e.getCause() instanceof IllegalArgumentException)
+                    throw (IllegalArgumentException) e.getCause();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // the results are in the order of the tasks, a row is a geometry and a column a policy
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("%6s %6s %6s %8s", "Sets", "Ways", "Words", "Size"));
+        for (String policy : policies)
+            s.append(String.format(" %8s", policy));
+        s.append(String.format("%n"));
+        List<String> rows = new ArrayList<>();
+        int next = 0;
+        for (int w = words[0]; w <= words[1]; w <<= 1) {
+            for (int t = sets[0]; t <= sets[1]; t <<= 1) {
+                int first = rows.size();
+                for (int a = ways[0]; a <= ways[1]; a <<= 1)
+                    rows.add(String.format("%6d %6d %6d %8d", t, a, w, t * a * w));
+                for (String policy : policies) {
+                    int row = first;
+                    if (policy.equals("lru")) {
+                        long[] misses = results.get(next++);
+                        for (int a = ways[0]; a <= ways[1]; a <<= 1)
+                            rows.set(row, rows.get(row++) + rate(misses[a]));
+                    } else {
+                        for (int a = ways[0]; a <= ways[1]; a <<= 1)
+                            rows.set(row, rows.get(row++) + rate(results.get(next++)[0]));
+                    }
+                }
+            }
+        }
+        for (String row : rows)
+            s.append(row).append(String.format("%n"));
+        s.append(String.format("%d configurations, miss rates in %% of %d accesses%n",
+                rows.size() * policies.length, addresses.length));
+        return s.toString();
+    }
+
+    private String rate(long misses) {
+        return String.format(" %7.2f%%", addresses.length == 0 ? 0 : misses * 100.0 / addresses.length);
+    }
+
+    // LRU misses of every number of ways up to maxWays, in element ways, by one pass
+    // each set keeps its lines most recently used first, maxWays deep, the depth a line is found
+    // at is its stack distance, a cache of more ways than the distance hits
+    long[] stackDistances(int sets, int maxWays, int lineWords) {
+        if (Integer.bitCount(sets) != 1 || Integer.bitCount(lineWords) != 1 || maxWays < 1)
+            throw new IllegalArgumentException("Invalid cache geometry: " + sets + " sets, " + maxWays + " ways, " + lineWords + " words");
+        int offsetBits = Integer.numberOfTrailingZeros(lineWords);
+        int setMask = sets - 1;
+        int[] stacks = new int[sets * maxWays];    // lines of each set, set * maxWays + depth
+        int[] depths = new int[sets];    // lines in the stack of each set
+        long[] distances = new long[maxWays];    // hits at each stack distance
+        for (int address : addresses) {
+            int line = address >>> offsetBits;
+            int set = line & setMask;
+            int base = set * maxWays;
+            int depth = depths[set];
+            int d = 0;
+            while (d < depth && stacks[base + d] != line)
+                d++;
+            if (d < depth)
+                distances[d]++;
+            else if (depth < maxWays)
+                depths[set] = ++depth;
+            else
+                d = maxWays - 1;    // the least recently used line falls out
+            // move the line to the top
+            System.arraycopy(stacks, base, stacks, base + 1, d);
+            stacks[base] = line;
+        }
+        long[] misses = new long[maxWays + 1];
+        long hits = 0;
+        for (int a = 1; a <= maxWays; a++) {
+            hits += distances[a - 1];
+            misses[a] = addresses.length - hits;
+        }
+        return misses;
+    }
+
+    // misses of one configuration, a miss fills the line like Memory does
+    long simulate(int sets, int ways, int lineWords, String policy) {
+        Cache cache = new Cache(sets, ways, lineWords, policy, policy.equals("opt") ? addresses : null);
+        for (int address : addresses) {
+            if (cache.lookup(address) < 0)
+                cache.place(cache.victim(address), address);
+        }
+        return cache.getMisses();
+    }
+
+    // stop the threads of the pool
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
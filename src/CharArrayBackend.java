@@ -0,0 +1,47 @@
+import java.util.Arrays;
+
+// words kept in a char array on the heap, growing copies the contents into a larger array
+public class CharArrayBackend implements MemoryBackend {
+    private char[] words;
+
+    // constructor
+    CharArrayBackend(int size) {
+        words = new char[size];
+    }
+
+    public char get(int address) {
+        return words[address];
+    }
+
+    public void set(int address, char value) {
+        words[address] = value;
+    }
+
+    public void read(int address, char[] dst, int offset, int length) {
+        System.arraycopy(words, address, dst, offset, length);
+    }
+
+    public void write(int address, char[] src, int offset, int length) {
+        System.arraycopy(src, offset, words, address, length);
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    public void grow(int size) {
+        if (size > words.length)
+            words = Arrays.copyOf(words, size);
+    }
+
+    public void reset(int size) {
+        if (size == words.length)
+            Arrays.fill(words, (char) 0);
+        else
+            words = new char[size];
+    }
+
+    public String getName() {
+        return "heap";
+    }
+}
@@ -0,0 +1,259 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// copy on write checkpoints of the memory paired with the state of the CPU
+// memory is seen as pages of PAGE_WORDS words, a checkpoint copies only the pages written since
+// the one before and shares the others with it, so a take costs the pages touched in between
+// a restore writes back only the pages that differ from the checkpoint
+// the checkpoints form one history, restoring one drops the ones after it, and the oldest ones
+// are dropped when the copies take more than the budget
+public class Checkpoints {
+    public static final int PAGE_BITS = 8;
+    public static final int PAGE_WORDS = 1 << PAGE_BITS;
+
+    // one saved state
+    private static class Checkpoint {
+        final int id;
+        final long instructions;    // instruction count of the CPU when it was taken
+        final int size;    // words of memory
+        final char[][] pages;    // words of each page, shared with the checkpoints before and after while unchanged
+        final byte[] cpuState;    // written by CPU.writeState
+        long bytes;    // size of the pages this checkpoint holds alone, and of its CPU state
+
+        Checkpoint(int id, long instructions, int size, char[][] pages, byte[] cpuState) {
+            this.id = id;
+            this.instructions = instructions;
+            this.size = size;
+            this.pages = pages;
+            this.cpuState = cpuState;
+        }
+    }
+
+    private final CPU cpu;
+    private final Memory memory;
+    private final long budget;    // bytes the checkpoints may take
+    private final ArrayDeque<Checkpoint> history;    // oldest first
+    private boolean[] touched;    // pages written since the newest checkpoint
+    private int[] touchedList;    // indexes of the touched pages
+    private int touchedCount;
+    private boolean allTouched;    // every page has to be copied, there is no checkpoint or the memory was replaced
+    private long bytes;    // bytes of all checkpoints
+    private int nextId;
+
+    // statistics
+    private long taken;
+    private long takeNanos;
+    private long restored;
+    private long restoreNanos;
+
+    // constructor, the checkpoints follow the writes to the memory from now on
+    Checkpoints(CPU cpu, Memory memory, long budget) {
+        this.cpu = cpu;
+        this.memory = memory;
+        this.budget = budget;
+        history = new ArrayDeque<>();
+        touched = new boolean[0];
+        touchedList = new int[16];
+        allTouched = true;
+        memory.setCheckpoints(this);
+    }
+
+    // a word of memory has been written
+    void touch(int address) {
+        int page = address >>> PAGE_BITS;
+        if (allTouched || (page < touched.length && touched[page]))
+            return;
+        if (page >= touched.length) {
+            allTouched = true;
+            return;
+        }
+        touched[page] = true;
+        if (touchedCount == touchedList.length)
+            touchedList = Arrays.copyOf(touchedList, touchedCount * 2);
+        touchedList[touchedCount++] = page;
+    }
+
+    // a range of words of memory has been written
+    void touch(int address, int length) {
+        for (int page = address >>> PAGE_BITS; page <= (address + length - 1) >>> PAGE_BITS; page++)
+            touch(page << PAGE_BITS);
+    }
+
+    // all of memory has been written or replaced
+    void touchAll() {
+        allTouched = true;
+    }
+
+    // take a checkpoint of the memory and the CPU, return its id
+    // the words of dirty cache lines are saved too, but the lines stay dirty so the timing does not change
+    public int take() {
+        long start = System.nanoTime();
+        memory.touchDirtyLines();
+        int size = memory.size();
+        int pageCount = (size + PAGE_WORDS - 1) >>> PAGE_BITS;
+        Checkpoint newest = history.peekLast();
+        char[][] pages;
+        long own = 0;
+        if (newest == null || allTouched || newest.size != size) {
+            pages = new char[pageCount][];
+            for (int i = 0; i < pageCount; i++)
+                pages[i] = copyPage(i, size);
+            own += (long) pageCount * PAGE_WORDS * 2;
+        } else {
+            pages = newest.pages.clone();
+            for (int k = 0; k < touchedCount; k++) {
+                int i = touchedList[k];
+                pages[i] = copyPage(i, size);
+            }
+            own += (long) touchedCount * PAGE_WORDS * 2;
+        }
+        ByteBuffer state = ByteBuffer.allocate(cpu.getStateSize());
+        cpu.writeState(state);
+        Checkpoint c = new Checkpoint(nextId++, cpu.getInstructionCount(), size, pages, state.array());
+        c.bytes = own + (long) pageCount * 8 + c.cpuState.length;
+        history.addLast(c);
+        bytes += c.bytes;
+        clearTouched(pageCount);
+        // keep within the budget, the newest checkpoint always stays
+        while (bytes > budget && history.size() > 1)
+            dropOldest();
+        taken++;
+        takeNanos += System.nanoTime() - start;
+        return c.id;
+    }
+
+    private char[] copyPage(int page, int size) {
+        char[] words = new char[PAGE_WORDS];
+        int address = page << PAGE_BITS;
+        memory.readWords(address, words, Math.min(PAGE_WORDS, size - address));
+        return words;
+    }
+
+    private void clearTouched(int pageCount) {
+        if (touched.length != pageCount)
+            touched = new boolean[pageCount];
+        else {
+            for (int k = 0; k < touchedCount; k++)
+                touched[touchedList[k]] = false;
+        }
+        touchedCount = 0;
+        allTouched = false;
+    }
+
+    // drop the oldest checkpoint, the pages it shares with the next one are held by that one now
+    private void dropOldest() {
+        Checkpoint old = history.removeFirst();
+        Checkpoint next = history.peekFirst();
+        bytes -= old.bytes;
+        if (next != null && next.pages.length == old.pages.length) {
+            for (int i = 0; i < old.pages.length; i++) {
+                if (next.pages[i] == old.pages[i]) {
+                    next.bytes += PAGE_WORDS * 2;
+                    bytes += PAGE_WORDS * 2;
+                }
+            }
+        }
+    }
+
+    // go back to the checkpoint of the id, the checkpoints after it are dropped
+    // return false if there is no such checkpoint
+    public boolean restore(int id) {
+        long start = System.nanoTime();
+        Checkpoint c = find(id);
+        if (c == null)
+            return false;
+        Checkpoint newest = history.peekLast();
+        // the caches hold words newer than the checkpoint, they are dropped without writing them back,
+        // so the pages of the dirty lines have to be written too
+        memory.touchDirtyLines();
+        memory.dropCaches();
+        if (allTouched || newest.size != c.size || memory.size() != c.size) {
+            memory.resize(c.size);
+            for (int i = 0; i < c.pages.length; i++)
+                restorePage(c, i);
+        } else {
+            for (int k = 0; k < touchedCount; k++)
+                restorePage(c, touchedList[k]);
+            for (int i = 0; i < c.pages.length; i++) {
+                if (newest.pages[i] != c.pages[i] && !touched[i])
+                    restorePage(c, i);
+            }
+        }
+        while (history.peekLast() != c)
+            bytes -= history.removeLast().bytes;
+        clearTouched(c.pages.length);
+        cpu.readState(ByteBuffer.wrap(c.cpuState));
+        restored++;
+        restoreNanos += System.nanoTime() - start;
+        return true;
+    }
+
+    private void restorePage(Checkpoint c, int page) {
+        int address = page << PAGE_BITS;
+        memory.restoreWords(address, c.pages[page], Math.min(PAGE_WORDS, c.size - address));
+    }
+
+    // find the checkpoint of the id, the recent ones are looked at first
+    private Checkpoint find(int id) {
+        Iterator<Checkpoint> it = history.descendingIterator();
+        while (it.hasNext()) {
+            Checkpoint c = it.next();
+            if (c.id <= id)
+                return c.id == id ? c : null;
+        }
+        return null;
+    }
+
+    // get the id of the newest checkpoint taken at or before the instruction count, -1 if none
+    public int findBefore(long instructions) {
+        Iterator<Checkpoint> it = history.descendingIterator();
+        while (it.hasNext()) {
+            Checkpoint c = it.next();
+            if (c.instructions <= instructions)
+                return c.id;
+        }
+        return -1;
+    }
+
+    // get the instruction count of the checkpoint of the id, -1 if there is no such checkpoint
+    public long getInstructions(int id) {
+        Checkpoint c = find(id);
+        return c == null ? -1 : c.instructions;
+    }
+
+    // get the id of the oldest checkpoint kept, -1 if none
+    public int getOldest() {
+        return history.isEmpty() ? -1 : history.peekFirst().id;
+    }
+
+    // get the id of the newest checkpoint, -1 if none
+    public int getNewest() {
+        return history.isEmpty() ? -1 : history.peekLast().id;
+    }
+
+    // get the number of checkpoints kept
+    public int size() {
+        return history.size();
+    }
+
+    // get the bytes the checkpoints take
+    public long getBytes() {
+        return bytes;
+    }
+
+    // stop following the writes to the memory and drop all checkpoints
+    public void close() {
+        memory.setCheckpoints(null);
+        history.clear();
+        bytes = 0;
+    }
+
+    // describe the checkpoints and the time of a take and a restore
+    public String toString() {
+        return String.format("Checkpoints: %d taken, %d kept in %d KB of %d KB, %.1f us a take, %d restored, %.1f us a restore",
+                taken, history.size(), bytes / 1024, budget / 1024,
+                taken == 0 ? 0 : takeNanos / 1e3 / taken, restored, restored == 0 ? 0 : restoreNanos / 1e3 / restored);
+    }
+}
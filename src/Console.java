@@ -0,0 +1,11 @@
+// output of the machine: the log console and the printer
+public interface Console {
+    // print a log message
+    void log(String s);
+
+    // print an error message
+    void error(String s);
+
+    // print to printer
+    void print(String s);
+}
@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// runs a CPU on a thread of its own so the UI is not blocked by the program
+// the CPU runs in slices of one frame, after each slice the worker publishes a snapshot of the
+// machine and looks for a pause or stop, so the UI reads a few frames a second however fast
+// the program runs
+// while the thread is alive it owns the CPU, the memory and the event log, nothing else may
+// touch them until isRunning is false, stop and the end of the run pass them back
+// the log and the printer output of the run are buffered and taken by the UI in the order
+// they were written, the log keeps the newest records of the event log of each frame
+public class CpuWorker {
+    // the state of the machine after a slice, it does not change once it is published
+    // the changes are the ones since the snapshot the UI took before, a snapshot the UI has not
+    // taken is merged into the next one
+    public static class Snapshot {
+        public final long instructions;
+        public final long cycles;
+        public final boolean running;    // false in the last snapshot of a run
+        public final boolean paused;
+        public final boolean halted;
+        public final boolean waiting;    // waiting for keyboard input
+        public final int changedRegisters;    // a bit of each register index changed since the snapshot taken before
+        private final char[] registers;
+        private final int[] words;    // addresses of the words changed since the snapshot taken before, in order
+        private final char[] values;    // their values
+
+        // constructor, the changes of the CPU and the memory are taken, older is the snapshot not
+        // taken by the UI, null if none
+        Snapshot(CPU cpu, Memory memory, boolean running, boolean paused, Snapshot older) {
+            instructions = cpu.getInstructionCount();
+            cycles = cpu.getCycleCount();
+            this.running = running;
+            this.paused = paused;
+            halted = cpu.isHalted();
+            waiting = cpu.isWaitingForInput();
+            registers = new char[13];
+            for (int i = 0; i < registers.length; i++)
+                registers[i] = (char) cpu.getRegister(i);
+            int changed = cpu.takeChangedRegisters();
+            int[] old = older == null ? new int[0] : older.words;
+            int n = old.length;
+            for (int a = memory.nextChanged(0); a >= 0; a = memory.nextChanged(a + 1))
+                n++;
+            int[] w = new int[n];
+            char[] v = new char[n];
+            // merge the words of the older snapshot, the ones changed again get the new value
+            n = 0;
+            int i = 0;
+            for (int a = memory.nextChanged(0); a >= 0; a = memory.nextChanged(a + 1)) {
+                for (; i < old.length && old[i] < a; i++) {
+                    w[n] = old[i];
+                    v[n++] = older.values[i];
+                }
+                if (i < old.length && old[i] == a)
+                    i++;
+                w[n] = a;
+                v[n++] = memory.load(a);
+            }
+            for (; i < old.length; i++) {
+                w[n] = old[i];
+                v[n++] = older.values[i];
+            }
+            memory.clearChanged();
+            changedRegisters = older == null ? changed : changed | older.changedRegisters;
+            words = n == w.length ? w : Arrays.copyOf(w, n);
+            values = n == v.length ? v : Arrays.copyOf(v, n);
+        }
+
+        public int getRegister(int index) {
+            return registers[index];
+        }
+
+        // get the number of words changed since the snapshot before
+        public int getChangedWords() {
+            return words.length;
+        }
+
+        // get the address of the k-th changed word, in increasing order
+        public int getWord(int k) {
+            return words[k];
+        }
+
+        public char getValue(int k) {
+            return values[k];
+        }
+    }
+
+    // console of the run, keeps the lines until the UI takes them
+    private static class Output implements Console {
+        private static final int LOG = 0;
+        private static final int ERROR = 1;
+        private static final int PRINT = 2;
+
+        private ArrayList<String> texts = new ArrayList<>();
+        private ArrayList<Integer> kinds = new ArrayList<>();
+
+        public synchronized void log(String s) {
+            add(LOG, s);
+        }
+
+        public synchronized void error(String s) {
+            add(ERROR, s);
+        }
+
+        public synchronized void print(String s) {
+            add(PRINT, s);
+        }
+
+        private void add(int kind, String s) {
+            texts.add(s);
+            kinds.add(kind);
+        }
+
+        // write the lines kept so far to a console and forget them
+        void drainTo(Console c) {
+            ArrayList<String> t;
+            ArrayList<Integer> k;
+            synchronized (this) {
+                t = texts;
+                k = kinds;
+                texts = new ArrayList<>();
+                kinds = new ArrayList<>();
+            }
+            for (int i = 0; i < t.size(); i++) {
+                if (k.get(i) == LOG)
+                    c.log(t.get(i));
+                else if (k.get(i) == ERROR)
+                    c.error(t.get(i));
+                else
+                    c.print(t.get(i));
+            }
+        }
+    }
+
+    private final CPU cpu;
+    private final Memory memory;
+    private final EventLog events;
+    private final long frameNanos;    // host time of a slice
+    private final Output output = new Output();
+    private final Object lock = new Object();    // guards the pause
+    private Thread thread;    // thread of the run, null before the first
+    private boolean pauseRequested;
+    private volatile boolean stopRequested;
+    private volatile long runInstructions;    // instructions retired by the current or last run
+    private volatile long runNanos;    // host time of the run, pauses included
+    private volatile long frames;    // snapshots published by the run
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();    // snapshot not taken yet, null if none
+
+    // constructor, the worker publishes framesPerSecond snapshots a second while running
+    CpuWorker(CPU cpu, Memory memory, EventLog events, int framesPerSecond) {
+        this.cpu = cpu;
+        this.memory = memory;
+        this.events = events;
+        frameNanos = 1000000000L / framesPerSecond;
+    }
+
+    // run the CPU on a new thread until HLT, waiting for input, the instruction budget is
+    // used up or it is stopped, it does nothing if a run is going on
+    public void start(long maxInstructions) {
+        if (isRunning())
+            return;
+        stopRequested = false;
+        pauseRequested = false;
+        thread = new Thread(() -> work(maxInstructions), "CPU");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // the run of the thread
+    private void work(long maxInstructions) {
+        Console console = cpu.getConsole();
+        Console eventConsole = events.getConsole();
+        // the event log keeps the newest records of a frame, the rest are counted as dropped
+        cpu.setConsole(output);
+        events.setConsole(null);
+        long budget = maxInstructions;
+        long start = System.nanoTime();
+        long first = cpu.getInstructionCount();
+        runInstructions = 0;
+        frames = 0;
+        try {
+            while (!stopRequested && budget > 0) {
+                synchronized (lock) {
+                    if (pauseRequested) {
+                        publish(true, true);
+                        while (pauseRequested && !stopRequested)
+                            lock.wait();
+                        if (stopRequested)
+                            break;
+                    }
+                }
+                cpu.run(budget, System.nanoTime() + frameNanos);
+                budget -= cpu.getLastRunInstructions();
+                runInstructions = cpu.getInstructionCount() - first;
+                runNanos = System.nanoTime() - start;
+                if (cpu.isHalted() || cpu.isWaitingForInput())
+                    break;
+                publish(true, false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            runInstructions = cpu.getInstructionCount() - first;
+            runNanos = System.nanoTime() - start;
+            cpu.setConsole(console);
+            publish(false, false);
+            events.setConsole(eventConsole);
+        }
+    }
+
+    // drain the event log and publish a snapshot, the one before is merged in if the UI has not taken it
+    private void publish(boolean running, boolean paused) {
+        events.drainTo(output);
+        Snapshot older = snapshot.getAndSet(null);
+        snapshot.set(new Snapshot(cpu, memory, running, paused, older));
+        frames++;
+    }
+
+    // stop at the end of the current slice until resume, the CPU is still owned by the thread
+    public void pause() {
+        synchronized (lock) {
+            pauseRequested = true;
+        }
+    }
+
+    public void resume() {
+        synchronized (lock) {
+            pauseRequested = false;
+            lock.notifyAll();
+        }
+    }
+
+    // end the run and wait for the thread, the CPU can be used again afterwards
+    public void stop() {
+        stopRequested = true;
+        resume();
+        join();
+    }
+
+    // wait for the thread to end
+    public void join() {
+        if (thread == null)
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // check if a run is going on, paused or not
+    public boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    public boolean isPaused() {
+        synchronized (lock) {
+            return pauseRequested && isRunning();
+        }
+    }
+
+    // take the newest snapshot, null if there is none since the last take
+    // the last snapshot of a run is not running, the thread may still be ending, join waits for it
+    public Snapshot takeSnapshot() {
+        return snapshot.getAndSet(null);
+    }
+
+    // get the instructions retired by the current or last run
+    public long getRunInstructions() {
+        return runInstructions;
+    }
+
+    // write the log and printer output of the run so far to a console
+    public void drainOutput(Console c) {
+        output.drainTo(c);
+    }
+
+    // describe the current or last run
+    @Override
+    public String toString() {
+        return String.format("%d instructions in %.3f ms (%.0f IPS), %d frames", runInstructions, runNanos / 1e6,
+                runNanos == 0 ? 0 : runInstructions * 1e9 / runNanos, frames);
+    }
+}
@@ -0,0 +1,205 @@
+// log of execution events
+// every event is a fixed size record of ints in a preallocated ring buffer,
+// the text of an event is only built when a console reads the records
+public class EventLog {
+    // kinds of records which are not an instruction, opcodes use 0 - 077
+    public static final int MESSAGE = 0100;    // text message
+    public static final int ERROR = 0101;    // text error message
+    public static final int FAULT = 0102;    // machine fault, a is MFR
+    public static final int WAIT = 0103;    // waiting for keyboard input
+
+    // ints of each record: kind, PC, a, b, CC, c
+    private static final int RECORD_SIZE = 6;
+
+    // mnemonic of each opcode
+    private static final String[] NAMES = new String[64];
+
+    static {
+        String[] names = {"HLT", "LDR", "STR", "LDA", "AMR", "SMR", "AIR", "SIR",
+                "JZ", "JNE", "JCC", "JMA", "JSR", "RFS", "SOB", "JGE",
+                "MLT", "DVD", "TRR", "AND", "ORR", "NOT"};
+        System.arraycopy(names, 0, NAMES, 0, names.length);
+        NAMES[031] = "SRC";
+        NAMES[032] = "RRC";
+        NAMES[036] = "TRAP";
+        NAMES[041] = "LDX";
+        NAMES[042] = "STX";
+        NAMES[061] = "IN";
+        NAMES[062] = "OUT";
+    }
+
+    private final int[] records;    // ring buffer of records
+    private final String[] messages;    // text of the message records, same slot as the record
+    private final int mask;    // capacity - 1, capacity is a power of 2
+    private long head;    // number of records written
+    private long tail;    // number of records read
+    private long dropped;    // number of records overwritten before they were read
+    private Console console;    // consumer of the records, null when records are kept in the buffer
+    private boolean enabled;    // false to ignore all records
+
+    // constructor, capacity is rounded up to a power of 2
+    EventLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        records = new int[size * RECORD_SIZE];
+        messages = new String[size];
+        mask = size - 1;
+        enabled = true;
+    }
+
+    // set the console which reads the records, the buffer is drained into it when it is full
+    // without a console the oldest records are overwritten
+    public void setConsole(Console c) {
+        console = c;
+    }
+
+    public Console getConsole() {
+        return console;
+    }
+
+    public void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // record an event, kind is an opcode or one of the kinds above
+    public void record(int kind, int pc, int a, int b, int cc, int c) {
+        if (!enabled)
+            return;
+        int slot = next();
+        int i = slot * RECORD_SIZE;
+        records[i] = kind;
+        records[i + 1] = pc;
+        records[i + 2] = a;
+        records[i + 3] = b;
+        records[i + 4] = cc;
+        records[i + 5] = c;
+    }
+
+    // record a text message
+    public void message(String s) {
+        text(MESSAGE, s);
+    }
+
+    // record a text error message
+    public void error(String s) {
+        text(ERROR, s);
+    }
+
+    private void text(int kind, String s) {
+        if (!enabled)
+            return;
+        int slot = next();
+        records[slot * RECORD_SIZE] = kind;
+        messages[slot] = s;
+    }
+
+    // get the slot of a new record, make room if the buffer is full
+    private int next() {
+        if (head - tail > mask) {
+            if (console != null)
+                drainTo(console);
+            else {
+                messages[(int) (tail & mask)] = null;
+                tail++;
+                dropped++;
+            }
+        }
+        return (int) (head++ & mask);
+    }
+
+    // number of records not read yet
+    public int size() {
+        return (int) (head - tail);
+    }
+
+    // read all records into the console set before
+    public void drain() {
+        if (console != null)
+            drainTo(console);
+    }
+
+    // read all records into a console
+    public void drainTo(Console c) {
+        if (dropped > 0) {
+            c.error("Log: " + dropped + " records dropped");
+            dropped = 0;
+        }
+        while (tail < head) {
+            int slot = (int) (tail & mask);
+            int kind = records[slot * RECORD_SIZE];
+            if (kind == ERROR || kind == FAULT)
+                c.error(format(slot));
+            else
+                c.log(format(slot));
+            messages[slot] = null;
+            tail++;
+        }
+    }
+
+    // drop all records
+    public void clear() {
+        for (; tail < head; tail++)
+            messages[(int) (tail & mask)] = null;
+        dropped = 0;
+    }
+
+    // build the text of a record
+    private String format(int slot) {
+        int i = slot * RECORD_SIZE;
+        int kind = records[i];
+        int pc = records[i + 1];
+        int a = records[i + 2];
+        int b = records[i + 3];
+        int cc = records[i + 4];
+        int c = records[i + 5];
+        switch (kind) {
+            case MESSAGE:
+            case ERROR:
+                return messages[slot];
+            case FAULT:
+                return "Machine Fault: MFR = " + a;
+            case WAIT:
+                return "Waiting for input for keyboard";
+            case 0: // HLT
+                return "HLT: PC = " + pc;
+            case 02: // STR
+            case 042: // STX
+                return NAMES[kind] + ": Memory[" + a + "] = " + b;
+            case 04: // AMR
+            case 05: // SMR
+            case 06: // AIR
+            case 07: // SIR
+                return NAMES[kind] + ": Reg[" + a + "] = " + b + (cc == 0b1000 ? " Result OVERFLOW" : cc == 0b0100 ? " Result UNDERFLOW" : "");
+            case 010: // JZ
+            case 011: // JNE
+            case 012: // JCC
+            case 013: // JMA
+            case 017: // JGE
+                return NAMES[kind] + (c >= 0 ? ": Jump To " + c : ": Not Jump");
+            case 014: // JSR
+                return "JSR: Reg[3] = " + b + " Jump To " + c;
+            case 015: // RFS
+                return "RFS: Reg[0] = " + b + " Return To " + c;
+            case 016: // SOB
+                return "SOB: Reg[" + a + "] = " + b + (c >= 0 ? " Branch To " + c : " Not Branch");
+            case 020: // MLT
+            case 021: // DVD
+                if (kind == 021 && cc == 0b0010)
+                    return "DVD: DIVZERO";
+                return NAMES[kind] + ": Reg[" + a + "] = " + b + "\n     Reg[" + (a + 1) + "] = " + c;
+            case 022: // TRR
+                return "TRR: CC = " + cc + (cc == 0b0001 ? " Equal" : " Not Equal");
+            case 036: // TRAP
+                return "TRAP: code = " + a;
+            case 041: // LDX
+                return "LDX: XReg[" + a + "] = " + b;
+            case 062: // OUT
+                return "OUT";
+            default: // LDR, LDA, AND, ORR, NOT, SRC, RRC, IN
+                return NAMES[kind] + ": Reg[" + a + "] = " + b;
+        }
+    }
+}
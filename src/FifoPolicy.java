@@ -0,0 +1,34 @@
+import java.util.Arrays;
+
+// first in first out, the line brought in first is replaced first, hits do not matter
+public class FifoPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final int[] next;    // way after the newest line of each set
+
+    FifoPolicy(int sets, int ways) {
+        this.ways = ways;
+        next = new int[sets];
+    }
+
+    public void access(int line) {
+    }
+
+    public void touch(int set, int way) {
+    }
+
+    public void fill(int set, int way, int line) {
+        next[set] = way + 1 == ways ? 0 : way + 1;
+    }
+
+    public int victim(int set) {
+        return next[set];
+    }
+
+    public void clear() {
+        Arrays.fill(next, 0);
+    }
+
+    public String getName() {
+        return "FIFO";
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// run many programs at the same time, every program on its own isolated CPU and memory
+public class Fleet {
+    // a program to run and its keyboard input
+    public static class Job {
+        public final String program;    // built-in test program or image file, as for BatchRunner
+        public final Vector<Vector<Character>> inputs;    // keyboard inputs in the order they are typed
+
+        Job(String p, Vector<Vector<Character>> in) {
+            program = p;
+            inputs = in;
+        }
+    }
+
+    // the result of a job
+    public static class Result {
+        public final Job job;
+        public final String status;    // how the run stopped, or the error message
+        public final String output;    // printer output
+        public final long instructions;
+        public final long cycles;
+        public final long nanos;    // host time of the run
+
+        Result(Job j, String s, String o, long i, long c, long n) {
+            job = j;
+            status = s;
+            output = o;
+            instructions = i;
+            cycles = c;
+            nanos = n;
+        }
+    }
+
+    private final ForkJoinPool pool;    // work stealing pool running the jobs
+    private boolean translate;    // run with the block translator
+    private long maxInstructions;    // instruction budget of each job
+    private Duration maxTime;    // time budget of each job, null for none
+
+    // main entrance
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int copies = 1;
+        String outputDir = null;
+        Fleet fleet;
+        Vector<Vector<Character>> inputs = new Vector<>();
+        List<String> programs = new ArrayList<>();
+        boolean translate = false;
+        long maxInstructions = Long.MAX_VALUE;
+        Duration maxTime = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-j":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-copies":
+                    copies = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    outputDir = args[++i];
+                    break;
+                case "-n":
+                    for (String s : args[++i].split(","))
+                        inputs.add(BatchRunner.numberInput(Integer.parseInt(s.trim())));
+                    break;
+                case "-t":
+                    inputs.add(BatchRunner.textInput(args[++i]));
+                    break;
+                case "-x":
+                    translate = true;
+                    break;
+                case "-max":
+                    maxInstructions = Long.parseLong(args[++i]);
+                    break;
+                case "-time":
+                    maxTime = Duration.ofMillis(Long.parseLong(args[++i]));
+                    break;
+                default:
+                    programs.add(args[i]);
+                    break;
+            }
+        }
+        if (programs.isEmpty()) {
+            System.err.println("Usage: java Fleet [-j threads] [-copies n] [-o dir] [-n n1,n2,...] [-t text] [-x] [-max instructions] [-time ms] <program>...");
+            System.exit(2);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < copies; i++)
+            for (String program : programs)
+                jobs.add(new Job(program, inputs));
+        fleet = new Fleet(threads);
+        fleet.translate = translate;
+        fleet.maxInstructions = maxInstructions;
+        fleet.maxTime = maxTime;
+        long start = System.nanoTime();
+        List<Result> results = fleet.run(jobs);
+        long time = System.nanoTime() - start;
+        fleet.shutdown();
+        System.out.print(report(results, time));
+        if (outputDir != null) {
+            try {
+                for (int i = 0; i < results.size(); i++) {
+                    try (Writer writer = new FileWriter(outputDir + "/" + i + ".out")) {
+                        writer.write(results.get(i).output);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("IOException: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    // constructor, run at most threads jobs at the same time
+    Fleet(int threads) {
+        pool = new ForkJoinPool(threads);
+        maxInstructions = Long.MAX_VALUE;
+    }
+
+    // run the jobs with the block translator or not
+    public void setTranslation(boolean flag) {
+        translate = flag;
+    }
+
+    // set the instruction and time budget of each job, time can be null
+    public void setBudget(long instructions, Duration time) {
+        maxInstructions = instructions;
+        maxTime = time;
+    }
+
+    // run all jobs, the results are in the order of the jobs
+    public List<Result> run(List<Job> jobs) {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (Job job : jobs)
+            tasks.add(() -> runJob(job));
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return results;
+    }
+
+    // run one job on a new machine, a job which fails is a result with the error as its status,
+    // so it does not stop the other jobs
+    private Result runJob(Job job) {
+        BufferConsole console = new BufferConsole();
+        BatchRunner runner = new BatchRunner(console, false, BatchRunner.copyInputs(job.inputs));
+        CPU cpu = runner.getCPU();
+        cpu.setTranslation(translate);
+        runner.setBudget(maxInstructions, maxTime);
+        try {
+            runner.load(job.program);
+            runner.run();
+        } catch (IOException e) {
+            return new Result(job, "IOException: " + e.getMessage(), "", 0, 0, 0);
+        } catch (RuntimeException e) {
+            return new Result(job, e.getClass().getSimpleName() + ": " + e.getMessage(), console.getOutput(),
+                    cpu.getInstructionCount(), cpu.getCycleCount(), cpu.getHostNanos());
+        }
+        return new Result(job, runner.getStatus(), console.getOutput(),
+                cpu.getInstructionCount(), cpu.getCycleCount(), cpu.getHostNanos());
+    }
+
+    // stop the threads of the pool
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // build the report of all results, time is the host time of the whole fleet run
+    public static String report(List<Result> results, long time) {
+        StringBuilder s = new StringBuilder();
+        long instructions = 0;
+        long nanos = 0;
+        s.append(String.format("%-6s %-24s %-18s %14s %14s %12s%n", "Job", "Program", "Status", "Instructions", "Cycles", "Time (ms)"));
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            s.append(String.format("%-6d %-24s %-18s %14d %14d %12.3f%n", i, r.job.program, r.status,
+                    r.instructions, r.cycles, r.nanos / 1e6));
+            instructions += r.instructions;
+            nanos += r.nanos;
+        }
+        s.append(String.format("%d jobs, %d instructions in %.3f ms, %.0f IPS, %.2f machines busy on average%n",
+                results.size(), instructions, time / 1e6, time == 0 ? 0 : instructions * 1e9 / time,
+                time == 0 ? 0 : (double) nanos / time));
+        return s.toString();
+    }
+}
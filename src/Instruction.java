@@ -0,0 +1,26 @@
+// a decoded instruction word
+public class Instruction {
+    public final char word;    // the instruction word
+    public final int opcode;
+    public final int reg;    // general purpose register
+    public final int xreg;    // index register, or the second register of register to register instructions
+    public final int indexReg;    // index register used to calculate EA, 0 for none
+    public final boolean indirect;    // indirect addressing
+    public final boolean leftShift;    // L/R bit of shift and rotate
+    public final int addr;    // address field, also the immediate, trap code and device ID
+    public final InstructionHandler handler;    // handler of the opcode
+
+    // constructor, decode the word
+    Instruction(char w) {
+        word = w;
+        opcode = w >> 10;
+        reg = (w & 0x0300) >> 8;
+        xreg = (w & 0x00C0) >> 6;
+        leftShift = (xreg & 0b01) == 1;
+        indirect = (w & 0x0020) != 0;
+        addr = w & 0x001F;
+        // LDX and STX use the index register as the target, not for the address
+        indexReg = (opcode != 041 && opcode != 042) ? xreg : 0;
+        handler = CPU.getHandler(opcode);
+    }
+}
@@ -0,0 +1,4 @@
+// execution of one opcode, EA is calculated before the handler is called
+public interface InstructionHandler {
+    void execute(CPU cpu, Instruction in, int EA);
+}
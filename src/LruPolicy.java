@@ -0,0 +1,43 @@
+import java.util.Arrays;
+
+// true least recently used, every way keeps the time of its last use
+public class LruPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final long[] used;    // time of the last use of each slot, set * ways + way
+    private long clock;
+
+    LruPolicy(int sets, int ways) {
+        this.ways = ways;
+        used = new long[sets * ways];
+    }
+
+    public void access(int line) {
+    }
+
+    public void touch(int set, int way) {
+        used[set * ways + way] = ++clock;
+    }
+
+    public void fill(int set, int way, int line) {
+        used[set * ways + way] = ++clock;
+    }
+
+    public int victim(int set) {
+        int base = set * ways;
+        int way = 0;
+        for (int i = 1; i < ways; i++) {
+            if (used[base + i] < used[base + way])
+                way = i;
+        }
+        return way;
+    }
+
+    public void clear() {
+        Arrays.fill(used, 0);
+        clock = 0;
+    }
+
+    public String getName() {
+        return "LRU";
+    }
+}
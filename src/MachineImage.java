@@ -0,0 +1,122 @@
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// binary image of a whole machine, saved to a file and loaded to go on where it stopped
+// the file is a header, the memory words and the state of the CPU, all big endian:
+//   0  magic "CSIM"
+//   4  version
+//   8  number of memory words
+//   12 base size of the memory, it is expanded if it has more words
+//   16 offset of the CPU state
+//   HEADER_SIZE words of memory, 2 bytes each
+//   the CPU state written by CPU.writeState
+// both ways go through FileChannel.map, a load can map the words without copying them
+public class MachineImage {
+    private static final int MAGIC = 0x4353494d;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CHUNK_WORDS = 1 << 16;    // words copied at a time
+
+    // check if the file is a machine image, by its magic number
+    public static boolean isImage(String fileName) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // save the memory and the CPU, dirty cache lines are written back first
+    public static void save(String fileName, CPU cpu, Memory memory) throws IOException {
+        memory.flush();
+        int words = memory.size();
+        long stateOffset = HEADER_SIZE + 2L * words;
+        long size = stateOffset + cpu.getStateSize();
+        Path path = Paths.get(fileName);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            b.putInt(MAGIC);
+            b.putInt(VERSION);
+            b.putInt(words);
+            b.putInt(memory.getBaseSize());
+            b.putInt((int) stateOffset);
+            b.position(HEADER_SIZE);
+            CharBuffer out = b.asCharBuffer();
+            MemoryBackend backend = memory.getBackend();
+            char[] chunk = new char[Math.min(words, CHUNK_WORDS)];
+            for (int a = 0; a < words; a += chunk.length) {
+                int n = Math.min(chunk.length, words - a);
+                backend.read(a, chunk, 0, n);
+                out.put(chunk, 0, n);
+            }
+            b.position((int) stateOffset);
+            cpu.writeState(b);
+            b.force();
+        }
+    }
+
+    // load an image saved before, the CPU goes on from where it was saved
+    // mapped keeps the words in the file mapped copy on write, else they are copied into the backend of the memory,
+    // which keeps its size if it is larger than the image
+    // a file that cannot be written is copied, as a copy on write mapping needs a channel open for writing,
+    // though the file is not written
+    public static void load(String fileName, CPU cpu, Memory memory, boolean mapped) throws IOException {
+        Path path = Paths.get(fileName);
+        if (mapped && !Files.isWritable(path))
+            mapped = false;
+        StandardOpenOption[] options = mapped
+                ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[]{StandardOpenOption.READ};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                throw new IOException(fileName + ": not a machine image");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)
+                throw new IOException(fileName + ": not a machine image");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(fileName + ": unknown image version " + version);
+            int words = header.getInt();
+            int base = header.getInt();
+            int stateOffset = header.getInt();
+            if (words < 32 || base < 32 || base > words || stateOffset != HEADER_SIZE + 2L * words || stateOffset > size)
+                throw new IOException(fileName + ": corrupted image header");
+            ByteBuffer state = channel.map(FileChannel.MapMode.READ_ONLY, stateOffset, size - stateOffset);
+            CharBuffer image = channel.map(mapped ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE, 2L * words).asCharBuffer();
+            MemoryBackend backend;
+            if (mapped)
+                backend = new MappedBackend(image);
+            else {
+                backend = memory.getBackend();
+                int capacity = Math.max(words, backend.size());
+                if (capacity > words)
+                    base = capacity;
+                backend.reset(capacity);
+                char[] chunk = new char[Math.min(words, CHUNK_WORDS)];
+                for (int a = 0; a < words; a += chunk.length) {
+                    int n = Math.min(chunk.length, words - a);
+                    image.get(chunk, 0, n);
+                    backend.write(a, chunk, 0, n);
+                }
+            }
+            memory.restore(backend, base);
+            try {
+                cpu.readState(state);
+            } catch (RuntimeException e) {
+                throw new IOException(fileName + ": corrupted CPU state");
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+// words in a region of a file mapped copy on write, the words are read from the file as they are used
+// and changes stay in this process, the file is never written
+// growing or resetting to another size copies the words into a direct buffer once
+public class MappedBackend implements MemoryBackend {
+    private static final char[] ZERO = new char[4096];
+
+    private CharBuffer words;
+
+    // constructor, the buffer holds the words from its position to its limit
+    MappedBackend(CharBuffer buffer) {
+        words = buffer.slice();
+    }
+
+    public char get(int address) {
+        return words.get(address);
+    }
+
+    public void set(int address, char value) {
+        words.put(address, value);
+    }
+
+    public void read(int address, char[] dst, int offset, int length) {
+        CharBuffer b = words.duplicate();
+        b.position(address);
+        b.get(dst, offset, length);
+    }
+
+    public void write(int address, char[] src, int offset, int length) {
+        CharBuffer b = words.duplicate();
+        b.position(address);
+        b.put(src, offset, length);
+    }
+
+    public int size() {
+        return words.capacity();
+    }
+
+    public void grow(int size) {
+        if (size <= words.capacity())
+            return;
+        CharBuffer b = allocate(size);
+        b.put(words.duplicate());
+        b.clear();
+        words = b;
+    }
+
+    public void reset(int size) {
+        if (size != words.capacity())
+            words = allocate(size);
+        else {
+            CharBuffer b = words.duplicate();
+            b.clear();
+            while (b.hasRemaining())
+                b.put(ZERO, 0, Math.min(ZERO.length, b.remaining()));
+        }
+    }
+
+    private static CharBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size * 2).asCharBuffer();
+    }
+
+    public String getName() {
+        return "mapped";
+    }
+}
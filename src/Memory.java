@@ -1,144 +1,768 @@
-import java.awt.Color;
-import java.util.LinkedList;
-
-import javax.swing.JTextPane;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.Document;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
+import java.util.Arrays;
 
 public class Memory {
-    private JTextPane logTextPane;    // reference of log console on UI
+    // default simulated cycles of an access served by each level
+    private static final int L1_CYCLES = 1;
+    private static final int L2_CYCLES = 4;
+    private static final int MEMORY_CYCLES = 10;
+    private static final int FETCH_PC = 0xffff;    // PC the prefetcher of a unified L1 sees for the fetches
+    // the decoded instructions are kept in chunks of CHUNK_WORDS, a chunk is allocated when a word of it
+    // is decoded, so growing the memory only grows the array of the chunks and never copies instructions
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_WORDS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_WORDS - 1;
+
+    private EventLog events;    // reference of the event log, null when nobody listens
+
+    private MemoryBackend memory;        // 2048 words each is 16 bits by default
+    private Checkpoints checkpoints;    // checkpoints following the writes, null if there are none
+    private UndoJournal journal;    // old words of the stores of the CPU, null when it is not kept
+    private int baseSize;    // number of words before the memory is expanded
+    private Instruction[][] decoded;    // chunks of the decoded instruction of each word, null if none is decoded yet
+    private int codeEpoch;    // changed every time a decoded word is overwritten
+    private long[] changed;    // a bit of each word whose value changed since the display took the changes
+    private boolean allChanged;    // every word is taken as changed, the bits are not kept
+    private Cache cache;    // L1 data cache of loadCache and storeCache, instructions too when there is no L1I
+    private Cache instructionCache;    // L1 instruction cache of fetchCache, null when the L1 is unified
+    private Cache l2;    // unified L2 below the L1 caches, null when they miss to memory
+    private Prefetcher dataPrefetcher;    // prefetcher of the L1 data cache, null for none
+    private Prefetcher instructionPrefetcher;    // prefetcher of the L1 instruction cache, null for none
+    private final int[] targets = new int[Prefetcher.MAX_DEGREE];    // addresses predicted by a prefetcher
+    private int pc;    // PC of the instruction of the access, for the prefetchers
+    private long clock;    // cycle of the access, for the prefetchers to know if a line has arrived
+    private boolean writeBack;    // stores stay in the cache until the line is evicted or flushed
+    private boolean writeAllocate;    // a store miss brings the line into the cache
+    private int latency;    // simulated cycles of the last cache access
 
-    private char[] memory;        // 2048 words each is 16 bits
-    private boolean expandFlag;    // flag mark if the memory has been expanded
-    private LinkedList<CacheLine> cache;    // cache list
+    // simulated cycles of an access served by a level, a miss costs the latency of the level below
+    private int l1Latency = L1_CYCLES;
+    private int l2Latency = L2_CYCLES;
+    private int memoryLatency = MEMORY_CYCLES;
+
+    // simulated cycles spent in the accesses of each level, for the average memory access time
+    private long dataTime;
+    private long fetchTime;
+    private long l2Time;
+
+    // store traffic
+    private long writesThrough;    // stores written to memory directly
+    private long writesAvoided;    // stores kept in a cache line instead of memory
+    private long writeBacks;    // dirty lines written back to memory
 
     // constructor
     Memory() {
-        // use short value to simulate the memory to store word
-        memory = new char[2048];
-        expandFlag = false;
-        cache = new LinkedList<>();
+        // use char array on the heap to simulate the memory to store word
+        memory = new CharArrayBackend(2048);
+        baseSize = 2048;
+        decoded = new Instruction[chunks(2048)][];
+        codeEpoch++;
+        changed = new long[2048 >>> 6];
+        allChanged = true;
+        // 16 words fully associative, write through with write allocate
+        cache = new Cache(1, 16, 1);
+        writeAllocate = true;
     }
 
-    // load data from memory
+    // load data from memory, a dirty cached copy is newer than memory in write back mode
     public char load(int address) {
-        if (address >= 4096 || (!expandFlag && address >= 2048)) {
-            printLog("Error: Load Memory Address Out of Range: " + address);
+        if (!isValid(address)) {
+            printError("Error: Load Memory Address Out of Range: " + address);
             return 0;
-        } else
-            return memory[address];
+        }
+        if (writeBack) {
+            int slot = cache.find(address);
+            if (slot >= 0)
+                return cache.read(slot, address);
+        }
+        return memory.get(address);
+    }
+
+    // check if the address is in the memory
+    private boolean isValid(int address) {
+        return address >= 0 && address < memory.size();
     }
 
-    // store data into memory
+    // store data into memory, a cached copy is updated too
     public void store(int address, char value) {
-        if (address >= 4096 || (!expandFlag && address >= 2048))
-            printLog("Error: Store Memory Address Out of Range: " + address);
+        if (!isValid(address))
+            printError("Error: Store Memory Address Out of Range: " + address);
+        else {
+            write(address, value);
+            int slot = cache.find(address);
+            if (slot >= 0)
+                cache.write(slot, address, value);
+            updateInstruction(address, value);
+        }
+    }
+
+    // write a word of memory, the address is valid
+    private void write(int address, char value) {
+        memory.set(address, value);
+        invalidate(address);
+        if (!allChanged)
+            changed[address >>> 6] |= 1L << address;
+        if (checkpoints != null)
+            checkpoints.touch(address);
+    }
+
+    // a word has changed, drop its decoded instruction
+    private void invalidate(int address) {
+        Instruction[] chunk = decoded[address >>> CHUNK_BITS];
+        if (chunk != null && chunk[address & CHUNK_MASK] != null) {
+            chunk[address & CHUNK_MASK] = null;
+            codeEpoch++;
+        }
+    }
+
+    // number of chunks of the decoded instructions of a number of words
+    private static int chunks(int words) {
+        return (words + CHUNK_WORDS - 1) >>> CHUNK_BITS;
+    }
+
+    // get the next word at or after the address changed since the changes were cleared, -1 if none
+    public int nextChanged(int address) {
+        if (allChanged)
+            return address < memory.size() ? address : -1;
+        for (int i = address >>> 6; i < changed.length; i++) {
+            long bits = changed[i];
+            if (i == address >>> 6)
+                bits &= -1L << address;
+            if (bits != 0)
+                return (i << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        return -1;
+    }
+
+    // the display has taken the changes, keep the ones from now on
+    public void clearChanged() {
+        int words = (memory.size() + 63) >>> 6;
+        if (changed.length != words)
+            changed = new long[words];
         else
-            memory[address] = value;
+            Arrays.fill(changed, 0);
+        allChanged = false;
+    }
+
+    // get the decoded instruction of a word, null if it is not decoded or has been changed
+    public Instruction getDecoded(int address) {
+        Instruction[] chunk = decoded[address >>> CHUNK_BITS];
+        return chunk == null ? null : chunk[address & CHUNK_MASK];
+    }
+
+    // get the code epoch, it is changed when a decoded word is overwritten
+    public int getCodeEpoch() {
+        return codeEpoch;
+    }
+
+    // keep the decoded instruction of a word
+    public void setDecoded(int address, Instruction in) {
+        Instruction[] chunk = decoded[address >>> CHUNK_BITS];
+        if (chunk == null)
+            chunk = decoded[address >>> CHUNK_BITS] = new Instruction[CHUNK_WORDS];
+        chunk[address & CHUNK_MASK] = in;
     }
 
     // load data from cache
     public int loadCache(int address) {
         // check if the address is valid
-        if (address >= 4096 || (!expandFlag && address >= 2048)) {
-            printLog("Error: Load Memory Address Out of Range: " + address);
+        if (!isValid(address)) {
+            printError("Error: Load Memory Address Out of Range: " + address);
+            latency = 0;
             return Integer.MIN_VALUE;
-        } else {
-            CacheLine cacheLine;
-            // check if the cache has the address
-            for (CacheLine line : cache) {
-                cacheLine = line;
-                if (cacheLine.getAddress() == address)    // hit
-                    return cacheLine.getValue();
+        }
+        int slot = cache.lookup(address);
+        boolean miss = slot < 0;
+        if (!miss)
+            latency = l1Latency;
+        else {
+            // not hit, bring the line in from the level below
+            latency = 0;
+            slot = fill(address);
+        }
+        char value = cache.read(slot, address);
+        // a prefetch may replace the line, so it is read before
+        if (dataPrefetcher != null)
+            prefetch(cache, dataPrefetcher, address, slot, miss);
+        dataTime += latency;
+        return value;
+    }
+
+    // fetch an instruction word through the L1 instruction cache, or the data cache if the L1 is unified
+    public int fetchCache(int address) {
+        if (instructionCache == null) {
+            // the fetches look like the accesses of one instruction to the prefetcher,
+            // so they do not mix with the data accesses of the instruction at the same PC
+            pc = FETCH_PC;
+            int tmp = loadCache(address);
+            // count the time of the fetch apart from the data accesses
+            dataTime -= latency;
+            fetchTime += latency;
+            return tmp;
+        }
+        if (!isValid(address)) {
+            printError("Error: Load Memory Address Out of Range: " + address);
+            latency = 0;
+            return Integer.MIN_VALUE;
+        }
+        int slot = instructionCache.lookup(address);
+        boolean miss = slot < 0;
+        if (!miss)
+            latency = l1Latency;
+        else {
+            latency = 0;
+            slot = instructionCache.victim(address);
+            if (instructionPrefetcher != null && instructionCache.isPrefetched(slot))
+                instructionPrefetcher.countUnused();
+            snoop(address, instructionCache.getLineWords());
+            latency += fetchLine(address);
+            instructionCache.fill(slot, address, memory);
+        }
+        char value = instructionCache.read(slot, address);
+        if (instructionPrefetcher != null)
+            prefetch(instructionCache, instructionPrefetcher, address, slot, miss);
+        fetchTime += latency;
+        return value;
+    }
+
+    // a demand access of an L1 cache is done, count a prefetched line it uses, a late one stalls
+    // the access until it arrives, then train the prefetcher and bring in the lines it predicts
+    // slot is where the line is, -1 if a store miss has not allocated it
+    private void prefetch(Cache c, Prefetcher p, int address, int slot, boolean miss) {
+        boolean trigger = miss;
+        if (miss)
+            p.missed(address & -c.getLineWords());
+        else if (c.isPrefetched(slot)) {
+            long arrival = c.usePrefetched(slot);
+            if (arrival > clock) {
+                p.countLate();
+                latency += (int) (arrival - clock);
+            } else
+                p.countUseful();
+            trigger = true;
+        }
+        int n = p.access(pc, address, trigger, targets);
+        int demand = latency;
+        for (int i = 0; i < n; i++) {
+            int a = targets[i];
+            if (a < 0 || a >= memory.size() || c.find(a) >= 0)
+                continue;
+            int victim = c.victim(a);
+            if (c.isPrefetched(victim))
+                p.countUnused();
+            else if (c.isValid(victim))
+                p.replaced(c.getAddress(victim));
+            // the prefetch is not part of the access, its cycles only delay the arrival of the line
+            latency = 0;
+            if (c.isDirty(victim)) {
+                writeBack(c, victim);
+                latency += nextLatency();
+            }
+            if (c == instructionCache)
+                snoop(a, c.getLineWords());
+            latency += fetchLine(a);
+            c.fill(victim, a, memory);
+            c.setPrefetched(victim, clock + demand + latency);
+            p.countIssued();
+        }
+        latency = demand;
+        // the clock moves on by itself when nobody sets it
+        clock += latency;
+    }
+
+    // write back the dirty data cache lines holding the words of an instruction line,
+    // so the instruction cache does not bring in stale words from memory
+    private void snoop(int address, int lineWords) {
+        int base = address & -lineWords;
+        for (int a = base; a < base + lineWords; a++) {
+            int slot = cache.find(a);
+            if (slot >= 0 && cache.isDirty(slot)) {
+                writeBack(cache, slot);
+                latency += nextLatency();
             }
-            // not hit, load from memory, create a new cache line and add it into cache
-            char value = load(address);
-            cacheLine = new CacheLine(address, value);
-            if (cache.size() == 16)
-                cache.removeLast();
-            cache.addFirst(cacheLine);
-            return cacheLine.getValue();
         }
     }
 
-    // store data into cache, also into memory synchronously
+    // get the cycles of an L1 miss served by the level below, the L2 brings the line in on a miss
+    // the L2 is only a tag store for the timing, it is never dirty so memory always has its data
+    private int fetchLine(int address) {
+        if (l2 == null)
+            return memoryLatency;
+        int cycles;
+        if (l2.lookup(address) >= 0)
+            cycles = l2Latency;
+        else {
+            cycles = memoryLatency;
+            l2.fill(l2.victim(address), address, memory);
+        }
+        l2Time += cycles;
+        return cycles;
+    }
+
+    // get the cycles of a write to the level below the L1
+    private int nextLatency() {
+        return l2 == null ? memoryLatency : l2Latency;
+    }
+
+    // store data into cache, into memory synchronously in write through mode
     public int storeCache(int address, char value) {
         // check is the address is valid
-        if (address >= 4096 || (!expandFlag && address >= 2048)) {
-            printLog("Error: Store Memory Address Out of Range: " + address);
+        if (!isValid(address)) {
+            printError("Error: Store Memory Address Out of Range: " + address);
+            latency = 0;
             return Integer.MIN_VALUE;
-        } else {
-            // store into memory
-            store(address, value);
-            CacheLine cacheLine;
-            // check if the cache has the address
-            for (CacheLine line : cache) {
-                cacheLine = line;
-                if (cacheLine.getAddress() == address) // hit
-                {
-                    cacheLine.setValue(value);
-                    return 0;
-                }
+        }
+        if (journal != null)
+            journal.memory(address, load(address));
+        if (!writeBack) {
+            // write through, every store costs a memory access
+            write(address, value);
+            writesThrough++;
+            latency = nextLatency();
+            int slot = cache.lookup(address);
+            boolean miss = slot < 0;
+            if (!miss)
+                cache.write(slot, address, value);
+            else if (writeAllocate) {
+                // the line is brought in while the word is written
+                int cycles = latency;
+                latency = 0;
+                slot = fill(address);
+                latency = Math.max(cycles, latency);
             }
-            // not hit, create a new cache line and add it into cache
-            cacheLine = new CacheLine(address, value);
-            if (cache.size() == 16)
-                cache.removeLast();
-            cache.addFirst(cacheLine);
+            updateInstruction(address, value);
+            if (dataPrefetcher != null)
+                prefetch(cache, dataPrefetcher, address, slot, miss);
+            dataTime += latency;
+            return 0;
+        }
+        int slot = cache.lookup(address);
+        boolean miss = slot < 0;
+        if (!miss)
+            latency = l1Latency;
+        else if (writeAllocate) {
+            latency = 0;
+            slot = fill(address);
+        } else {
+            // not allocated, the word goes to memory
+            write(address, value);
+            writesThrough++;
+            latency = nextLatency();
+            updateInstruction(address, value);
+            if (dataPrefetcher != null)
+                prefetch(cache, dataPrefetcher, address, -1, true);
+            dataTime += latency;
             return 0;
         }
+        cache.write(slot, address, value);
+        cache.setDirty(slot);
+        invalidate(address);
+        if (!allChanged)
+            changed[address >>> 6] |= 1L << address;
+        writesAvoided++;
+        updateInstruction(address, value);
+        if (dataPrefetcher != null)
+            prefetch(cache, dataPrefetcher, address, slot, miss);
+        dataTime += latency;
+        return 0;
+    }
+
+    // keep the copy of a stored word in the instruction cache up to date
+    private void updateInstruction(int address, char value) {
+        if (instructionCache != null) {
+            int slot = instructionCache.find(address);
+            if (slot >= 0)
+                instructionCache.write(slot, address, value);
+        }
+    }
+
+    // bring the line of the address into the data cache, a dirty line it replaces is written back first
+    private int fill(int address) {
+        int slot = cache.victim(address);
+        if (dataPrefetcher != null && cache.isPrefetched(slot))
+            dataPrefetcher.countUnused();
+        if (cache.isDirty(slot)) {
+            writeBack(cache, slot);
+            latency += nextLatency();
+        }
+        latency += fetchLine(address);
+        cache.fill(slot, address, memory);
+        return slot;
+    }
+
+    // copy a dirty line back to memory
+    private void writeBack(Cache c, int slot) {
+        c.writeBack(slot, memory);
+        writeBacks++;
+        if (checkpoints != null)
+            checkpoints.touch(c.getAddress(slot), c.getLineWords());
+    }
+
+    // write all dirty lines back, memory is up to date afterwards
+    public void flush() {
+        for (int slot = 0; slot < cache.getSlots(); slot++) {
+            if (cache.isDirty(slot))
+                writeBack(cache, slot);
+        }
+    }
+
+    // drop the lines of every cache without writing them back, the counters are kept
+    void dropCaches() {
+        allChanged = true;
+        cache.invalidate();
+        if (instructionCache != null)
+            instructionCache.invalidate();
+        if (l2 != null)
+            l2.invalidate();
+    }
+
+    // choose write back or write through, and if a store miss allocates a line
+    public void setWritePolicy(boolean back, boolean allocate) {
+        flush();
+        writeBack = back;
+        writeAllocate = allocate;
+    }
+
+    public boolean isWriteBack() {
+        return writeBack;
+    }
+
+    public boolean isWriteAllocate() {
+        return writeAllocate;
+    }
+
+    // stores written to memory directly
+    public long getWritesThrough() {
+        return writesThrough;
+    }
+
+    // stores kept in the cache instead of memory
+    public long getWritesAvoided() {
+        return writesAvoided;
     }
 
-    //expand memory size from 2048 to 4096
+    // dirty lines written back
+    public long getWriteBacks() {
+        return writeBacks;
+    }
+
+    // use a new cache with FIFO replacement, sets and lineWords have to be powers of 2
+    public void setCache(int sets, int ways, int lineWords) {
+        setCache(sets, ways, lineWords, "fifo", null);
+    }
+
+    // use a new cache with the replacement policy of the name: lru, plru, fifo, random or opt,
+    // opt needs the lookups recorded by startCacheTrace in a run before
+    public void setCache(int sets, int ways, int lineWords, String policy, int[] optTrace) {
+        if (lineWords > memory.size())
+            throw new IllegalArgumentException("Cache line larger than memory: " + lineWords + " words");
+        Cache c = new Cache(sets, ways, lineWords, policy, optTrace);
+        flush();
+        cache = c;
+        dataTime = 0;
+        if (instructionCache == null)
+            fetchTime = 0;
+    }
+
+    // split the L1, instructions are fetched through a cache of their own
+    public void setInstructionCache(int sets, int ways, int lineWords, String policy) {
+        if (lineWords > memory.size())
+            throw new IllegalArgumentException("Cache line larger than memory: " + lineWords + " words");
+        instructionCache = new Cache(sets, ways, lineWords, policy, null);
+        fetchTime = 0;
+    }
+
+    // put a unified L2 below the L1 caches
+    public void setL2Cache(int sets, int ways, int lineWords, String policy) {
+        if (lineWords > memory.size())
+            throw new IllegalArgumentException("Cache line larger than memory: " + lineWords + " words");
+        l2 = new Cache(sets, ways, lineWords, policy, null);
+        l2Time = 0;
+    }
+
+    // set the simulated cycles of an access served by the L1, the L2 and memory
+    public void setLatencies(int l1, int l2, int memory) {
+        if (l1 < 0 || l2 < 0 || memory < 0)
+            throw new IllegalArgumentException("Invalid latencies: " + l1 + ", " + l2 + ", " + memory);
+        l1Latency = l1;
+        l2Latency = l2;
+        memoryLatency = memory;
+    }
+
+    // prefetch into the L1 data cache, a unified L1 prefetches for the fetches too, null for none
+    // the line size of the prefetcher has to be the one of the cache
+    public void setPrefetcher(Prefetcher p) {
+        dataPrefetcher = p;
+    }
+
+    // prefetch into the L1 instruction cache, null for none
+    public void setInstructionPrefetcher(Prefetcher p) {
+        if (p != null && instructionCache == null)
+            throw new IllegalArgumentException("No instruction cache to prefetch into");
+        instructionPrefetcher = p;
+    }
+
+    public Prefetcher getPrefetcher() {
+        return dataPrefetcher;
+    }
+
+    public Prefetcher getInstructionPrefetcher() {
+        return instructionPrefetcher;
+    }
+
+    // tell the prefetchers the PC of the instruction making the next access and the current cycle
+    public void setContext(int address, long cycle) {
+        pc = address;
+        clock = cycle;
+    }
+
+    public Cache getInstructionCache() {
+        return instructionCache;
+    }
+
+    public Cache getL2Cache() {
+        return l2;
+    }
+
+    // get the average cycles of an access to a cache of the hierarchy, NaN if it has no accesses
+    // a unified L1 includes the fetches
+    public double getAverageAccessTime(Cache c) {
+        long time;
+        if (c == l2)
+            time = l2Time;
+        else if (c == instructionCache)
+            time = fetchTime;
+        else if (instructionCache == null)
+            time = dataTime + fetchTime;
+        else
+            time = dataTime;
+        long accesses = c.getHits() + c.getMisses();
+        return accesses == 0 ? Double.NaN : (double) time / accesses;
+    }
+
+    // describe every level of the hierarchy, one line each
+    public String getCacheReport() {
+        StringBuilder sb = new StringBuilder();
+        if (instructionCache != null)
+            appendLevel(sb, "L1I", instructionCache);
+        if (instructionPrefetcher != null)
+            sb.append(instructionPrefetcher).append(System.lineSeparator());
+        appendLevel(sb, instructionCache == null ? "L1" : "L1D", cache);
+        if (dataPrefetcher != null)
+            sb.append(dataPrefetcher).append(System.lineSeparator());
+        if (l2 != null)
+            appendLevel(sb, "L2", l2);
+        sb.append(String.format("Memory: %d cycles", memoryLatency));
+        return sb.toString();
+    }
+
+    private void appendLevel(StringBuilder sb, String name, Cache c) {
+        sb.append(String.format("%s %s: %d hits, %d misses, %d cycles a hit, AMAT %.2f cycles%n", name, c,
+                c.getHits(), c.getMisses(), c == l2 ? l2Latency : l1Latency, getAverageAccessTime(c)));
+    }
+
+    // record the addresses of the cache lookups from now on
+    public void startCacheTrace() {
+        cache.startRecording();
+    }
+
+    // stop recording and get the addresses of the lookups
+    public int[] stopCacheTrace() {
+        return cache.stopRecording();
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    // get the simulated cycles of the last cache access
+    public int getLatency() {
+        return latency;
+    }
+
+    // get the number of words
+    public int size() {
+        return memory.size();
+    }
+
+    //expand memory size to twice the size it starts with, from 2048 to 4096 by default
     public void expand() {
-        if (expandFlag)
-            printLog("Error: Memory has been expanded");
-        else {
-            char[] tmp = memory;
-            memory = new char[4096];
-            System.arraycopy(tmp, 0, memory, 0, 2048);
-            expandFlag = true;
+        if (memory.size() > baseSize)
+            printError("Error: Memory has been expanded");
+        else
+            expand(baseSize * 2);
+    }
+
+    // grow the memory to the number of words, the off heap backend does not copy the words
+    public void expand(int words) {
+        if (words <= memory.size())
+            return;
+        memory.grow(words);
+        decoded = Arrays.copyOf(decoded, chunks(words));
+        allChanged = true;
+        if (checkpoints != null)
+            checkpoints.touchAll();
+    }
+
+    // use a new backend for the words, the memory starts with its size and is cleared
+    public void setBackend(MemoryBackend backend) {
+        if (backend.size() < 32)
+            throw new IllegalArgumentException("Memory too small for the ROM: " + backend.size() + " words");
+        flush();
+        memory = backend;
+        baseSize = backend.size();
+        clear();
+    }
+
+    // use a backend holding the words of a saved machine, it is expanded if it is larger than the base size
+    public void restore(MemoryBackend backend, int base) {
+        if (base < 32 || base > backend.size())
+            throw new IllegalArgumentException("Invalid memory size: " + base + " of " + backend.size() + " words");
+        memory = backend;
+        baseSize = base;
+        allChanged = true;
+        writesThrough = 0;
+        writesAvoided = 0;
+        writeBacks = 0;
+        decoded = new Instruction[chunks(backend.size())][];
+        codeEpoch++;
+        if (checkpoints != null)
+            checkpoints.touchAll();
+        clearCaches();
+    }
+
+    // get the number of words before the memory is expanded
+    public int getBaseSize() {
+        return baseSize;
+    }
+
+    // let the checkpoints follow the writes, null to stop
+    void setCheckpoints(Checkpoints c) {
+        checkpoints = c;
+    }
+
+    // keep the old words of the stores of the CPU in a journal, null to stop
+    void setJournal(UndoJournal j) {
+        journal = j;
+    }
+
+    // let the checkpoints know the pages of the dirty lines, memory does not have their words yet
+    void touchDirtyLines() {
+        if (checkpoints == null)
+            return;
+        for (int slot = 0; slot < cache.getSlots(); slot++) {
+            if (cache.isDirty(slot))
+                checkpoints.touch(cache.getAddress(slot), cache.getLineWords());
+        }
+    }
+
+    // read words as the program sees them, without writing back, a dirty line is newer than memory
+    void readWords(int address, char[] dst, int length) {
+        memory.read(address, dst, 0, length);
+        if (!writeBack)
+            return;
+        for (int slot = 0; slot < cache.getSlots(); slot++) {
+            if (!cache.isDirty(slot))
+                continue;
+            int line = cache.getAddress(slot);
+            int from = Math.max(line, address);
+            int to = Math.min(line + cache.getLineWords(), address + length);
+            for (int a = from; a < to; a++)
+                dst[a - address] = cache.read(slot, a);
+        }
+    }
+
+    // write back words saved by a checkpoint, the caches have to be dropped
+    void restoreWords(int address, char[] words, int length) {
+        memory.write(address, words, 0, length);
+        for (int a = address; a < address + length; a++) {
+            invalidate(a);
+            if (!allChanged)
+                changed[a >>> 6] |= 1L << a;
+        }
+    }
+
+    // change the number of words to the size of a checkpoint, the words are written back after
+    void resize(int words) {
+        if (words != memory.size()) {
+            memory.reset(words);
+            decoded = new Instruction[chunks(words)][];
+            codeEpoch++;
+            allChanged = true;
         }
     }
 
+    public MemoryBackend getBackend() {
+        return memory;
+    }
+
     // clear the memory, reset all values to initial state
     public void clear() {
-        memory = new char[2048];
-        expandFlag = false;
-        cache = new LinkedList<>();
+        writesThrough = 0;
+        writesAvoided = 0;
+        writeBacks = 0;
+        memory.reset(baseSize);
+        decoded = new Instruction[chunks(baseSize)][];
+        codeEpoch++;
+        allChanged = true;
+        if (checkpoints != null)
+            checkpoints.touchAll();
+        clearCaches();
+    }
+
+    // drop the lines of every cache and reset the counters
+    private void clearCaches() {
+        dataTime = 0;
+        fetchTime = 0;
+        l2Time = 0;
+        cache.clear();
+        if (dataPrefetcher != null)
+            dataPrefetcher.clear();
+        if (instructionPrefetcher != null)
+            instructionPrefetcher.clear();
+        if (instructionCache != null)
+            instructionCache.clear();
+        if (l2 != null)
+            l2.clear();
     }
 
     // clear the memory but keep the ROM code
     public void clearWithROM() {
-        char[] tmp = new char[2048];
-        System.arraycopy(memory, 0, tmp, 0, 32);
-        memory = tmp;
-        expandFlag = false;
-        cache = new LinkedList<>();
+        flush();
+        char[] rom = new char[32];
+        memory.read(0, rom, 0, 32);
+        memory.reset(baseSize);
+        memory.write(0, rom, 0, 32);
+        decoded = new Instruction[chunks(baseSize)][];
+        codeEpoch++;
+        allChanged = true;
+        if (checkpoints != null)
+            checkpoints.touchAll();
+        clearCaches();
     }
 
-    // set the log console reference
-    public void setTextPane(JTextPane log) {
-        logTextPane = log;
+    // set the event log reference
+    public void setEventLog(EventLog log) {
+        events = log;
     }
 
     // print log message of memory
     public void printLog(String s) {
-        Document doc = logTextPane.getDocument();
-        s = "\n" + s;
-        SimpleAttributeSet attrSet = null;
-        if (s.contains("Error")) {
-            attrSet = new SimpleAttributeSet();
-            StyleConstants.setForeground(attrSet, Color.RED);
-        }
-        try {
-            doc.insertString(doc.getLength(), s, attrSet);
-        } catch (BadLocationException e) {
-            System.out.println("BadLocationException: " + e);
-        }
-        logTextPane.setCaretPosition(doc.getLength());
+        if (events != null)
+            events.message(s);
+    }
+
+    // print error message of memory
+    public void printError(String s) {
+        if (events != null)
+            events.error(s);
     }
 
     // load IPL program into memory
@@ -0,0 +1,24 @@
+// storage of the words of main memory
+// addresses are checked by the memory before they get here
+public interface MemoryBackend {
+    char get(int address);
+
+    void set(int address, char value);
+
+    // copy length words from the address into dst
+    void read(int address, char[] dst, int offset, int length);
+
+    // copy length words from src to the address
+    void write(int address, char[] src, int offset, int length);
+
+    // get the number of words
+    int size();
+
+    // grow to the number of words, the contents are kept and the new words are 0
+    void grow(int words);
+
+    // drop the contents, all words are 0 and there are the number of words afterwards
+    void reset(int words);
+
+    String getName();
+}
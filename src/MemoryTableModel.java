@@ -0,0 +1,138 @@
+import javax.swing.table.AbstractTableModel;
+
+// table of the memory words, a row a word, the cells are read from the memory when Swing draws them
+// so no copy of the words is kept and a larger memory costs no more than its rows on the screen
+// a value typed in a cell is stored when the editing stops
+// while the CPU runs on another thread the table shows a copy of the words, kept up to date by
+// the snapshots of the run, and cannot be edited
+public class MemoryTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMN_NAMES = {"Idx", "BiValue"};
+
+    private final Memory memory;
+    private int rows;    // size of the memory the table was told about
+    private char[] words;    // copy of the words while the CPU runs, null when the memory is read
+
+    // constructor
+    MemoryTableModel(Memory memory) {
+        this.memory = memory;
+        rows = memory.size();
+    }
+
+    // tell the table about the words changed since the last refresh, in runs of rows
+    public void refresh() {
+        if (rows != memory.size()) {
+            rows = memory.size();
+            fireTableDataChanged();
+            memory.clearChanged();
+            return;
+        }
+        int first = memory.nextChanged(0);
+        while (first >= 0) {
+            int last = first;
+            int next;
+            while ((next = memory.nextChanged(last + 1)) == last + 1)
+                last = next;
+            fireTableRowsUpdated(first, last);
+            first = next;
+        }
+        memory.clearChanged();
+    }
+
+    // read the copy of the words from now on, the memory belongs to the thread of a run
+    public void freeze() {
+        words = new char[rows];
+        memory.readWords(0, words, rows);
+    }
+
+    // the changed words of a snapshot of the run
+    public void apply(CpuWorker.Snapshot s) {
+        int n = s.getChangedWords();
+        int k = 0;
+        while (k < n && s.getWord(k) < rows) {
+            int first = s.getWord(k);
+            int last = first;
+            words[first] = s.getValue(k++);
+            while (k < n && s.getWord(k) == last + 1 && s.getWord(k) < rows) {
+                last++;
+                words[last] = s.getValue(k++);
+            }
+            fireTableRowsUpdated(first, last);
+        }
+    }
+
+    // read the memory again, the run is over
+    public void thaw() {
+        words = null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0)
+            return Integer.toString(row);
+        return toBinary(words == null ? memory.load(row) : words[row]);
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column != 0 && words == null;
+    }
+
+    // store the value of the binary digits, the commas are ignored
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        String s = value.toString();
+        int word = 0;
+        int count = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch != '0' && ch != '1' && ch != ',') {
+                memory.printError("Set Memory Value Failed! Value Has Invalid Character");
+                fireTableRowsUpdated(row, row);
+                return;
+            } else if (ch != ',') {
+                word = word << 1 | ch - '0';
+                count++;
+                if (count > 16) {
+                    memory.printError("Set Memory Value Failed! Value Is Over Range");
+                    fireTableRowsUpdated(row, row);
+                    return;
+                }
+            }
+        }
+        if (count == 0) {
+            fireTableRowsUpdated(row, row);
+            return;
+        }
+        memory.store(row, (char) word);
+        memory.printLog("Set Memory[" + row + "] = " + Integer.toBinaryString(word));
+        fireTableRowsUpdated(row, row);
+    }
+
+    // the 16 bits of a word in groups of 4 split by commas
+    static String toBinary(int value) {
+        char[] bits = new char[19];
+        int n = bits.length;
+        for (int j = 0; j < 16; j++) {
+            if (j > 0 && j % 4 == 0)
+                bits[--n] = ',';
+            bits[--n] = (char) ('0' + (value >> j & 1));
+        }
+        return new String(bits);
+    }
+}
@@ -0,0 +1,136 @@
+// paged virtual memory between the CPU and the memory
+// a virtual address is a page number in the high 8 bits and an offset in the low 8 bits
+// the page table of the running process is PAGE_WORDS words of guest memory at the page table
+// base, one entry a page: bit 15 valid, bit 14 writable, the frame number in the low 12 bits
+// the TLB is a cache of entries refilled by walking the table in hardware, the walk reads the
+// entry through the data cache and costs its cycles, a TLB hit costs nothing more
+// the addresses under UNMAPPED hold the vectors and fault words every process shares, they are
+// not translated
+// stores of the CPU into the page table drop the entry from the TLB, a new page table base
+// flushes it, so a context switch is one setPageTable, or TRAP SWITCH_TRAP in the guest with
+// the frame of the new page table in R0
+// the pipeline does not translate
+public class Mmu {
+    public static final int PAGE_BITS = 8;
+    public static final int PAGE_WORDS = 1 << PAGE_BITS;
+    public static final int UNMAPPED = 32;
+    public static final int SWITCH_TRAP = 15;    // trap code of a page table switch, a machine fault without an MMU
+    static final int VALID = 0x8000;
+    static final int WRITABLE = 0x4000;
+    static final int FRAME_MASK = 0x0fff;
+
+    private final Memory memory;
+    private final Cache tlb;    // entry of a page number, in lines of one word
+    private int pageTable;    // physical address of the page table of the running process
+    private int latency;    // simulated cycles of the last translation
+
+    // statistics
+    private long walks;
+    private long faults;
+    private long flushes;
+
+    // constructor, the TLB has sets * ways entries with the replacement policy of the name
+    Mmu(Memory memory, int sets, int ways, String policy, int pageTable) {
+        this.memory = memory;
+        tlb = new Cache(sets, ways, 1, policy, null);
+        this.pageTable = pageTable;
+    }
+
+    // translate a virtual address to a physical one, -1 if the page is not mapped or not writable
+    int translate(int address, boolean write) {
+        latency = 0;
+        if (address < UNMAPPED)
+            return address;
+        int page = address >>> PAGE_BITS;
+        int slot = tlb.lookup(page);
+        int entry;
+        if (slot >= 0)
+            entry = tlb.read(slot, page);
+        else {
+            // walk the page table, an entry out of memory is not valid
+            walks++;
+            entry = memory.loadCache(pageTable + page);
+            latency = memory.getLatency();
+            if (entry == Integer.MIN_VALUE || (entry & VALID) == 0) {
+                faults++;
+                return -1;
+            }
+            slot = tlb.victim(page);
+            tlb.place(slot, page);
+            tlb.write(slot, page, (char) entry);
+        }
+        if (write && (entry & WRITABLE) == 0) {
+            faults++;
+            return -1;
+        }
+        return (entry & FRAME_MASK) << PAGE_BITS | address & (PAGE_WORDS - 1);
+    }
+
+    // a physical word has been written by the CPU, drop the TLB entry if it was a page table entry
+    void written(int address) {
+        int page = address - pageTable;
+        if (page >= 0 && page < PAGE_WORDS) {
+            int slot = tlb.find(page);
+            if (slot >= 0)
+                tlb.drop(slot);
+        }
+    }
+
+    // get the simulated cycles of the last translation
+    int getLatency() {
+        return latency;
+    }
+
+    // switch to the page table at the physical address, the TLB is flushed
+    public void setPageTable(int address) {
+        pageTable = address;
+        flush();
+    }
+
+    public int getPageTable() {
+        return pageTable;
+    }
+
+    // map a virtual page to a physical frame in the current page table
+    public void map(int page, int frame, boolean writable) {
+        memory.store(pageTable + page, (char) (VALID | (writable ? WRITABLE : 0) | frame & FRAME_MASK));
+        written(pageTable + page);
+    }
+
+    public void unmap(int page) {
+        memory.store(pageTable + page, (char) 0);
+        written(pageTable + page);
+    }
+
+    // map every page to the frame of the same number, except the ones of the page table
+    // and the ones past the end of memory
+    public void mapIdentity() {
+        int frames = memory.size() >>> PAGE_BITS;
+        for (int page = 0; page < PAGE_WORDS; page++) {
+            int start = page << PAGE_BITS;
+            if (page < frames && (start + PAGE_WORDS <= pageTable || start >= pageTable + PAGE_WORDS))
+                map(page, page, true);
+            else
+                unmap(page);
+        }
+    }
+
+    // drop all TLB entries
+    public void flush() {
+        tlb.invalidate();
+        flushes++;
+    }
+
+    public Cache getTlb() {
+        return tlb;
+    }
+
+    // describe the TLB and its hit rate
+    @Override
+    public String toString() {
+        long accesses = tlb.getHits() + tlb.getMisses();
+        return String.format("TLB %s: %d hits, %d misses (%.2f%% hit rate), %d walks, %d page faults, %d flushes",
+                tlb, tlb.getHits(), tlb.getMisses(), accesses == 0 ? 0 : tlb.getHits() * 100.0 / accesses,
+                walks, faults, flushes);
+    }
+}
@@ -0,0 +1,23 @@
+// next line prefetcher, a miss fetches the lines following the missed one
+public class NextLinePrefetcher extends Prefetcher {
+    // constructor
+    NextLinePrefetcher(int lineWords, int degree, int distance) {
+        super(lineWords, degree, distance);
+    }
+
+    public int access(int pc, int address, boolean miss, int[] targets) {
+        if (!miss)
+            return 0;
+        int line = address & -lineWords;
+        for (int i = 0; i < degree; i++)
+            targets[i] = line + (distance + i) * lineWords;
+        return degree;
+    }
+
+    protected void reset() {
+    }
+
+    public String getName() {
+        return "Next line";
+    }
+}
@@ -0,0 +1,95 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+// words kept outside the heap in direct buffers of CHUNK_WORDS words each,
+// growing adds chunks and never copies the words already there
+// chunks dropped by reset are kept and reused, a direct buffer is only freed by the GC
+public class OffHeapBackend implements MemoryBackend {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_WORDS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_WORDS - 1;
+    private static final char[] ZERO = new char[CHUNK_WORDS];
+
+    private CharBuffer[] chunks;    // chunks of the words, the last one may be used in part
+    private int chunkCount;    // chunks in use, the ones after are spare
+    private int size;
+
+    // constructor
+    OffHeapBackend(int size) {
+        chunks = new CharBuffer[0];
+        grow(size);
+    }
+
+    public char get(int address) {
+        return chunks[address >>> CHUNK_BITS].get(address & CHUNK_MASK);
+    }
+
+    public void set(int address, char value) {
+        chunks[address >>> CHUNK_BITS].put(address & CHUNK_MASK, value);
+    }
+
+    public void read(int address, char[] dst, int offset, int length) {
+        while (length > 0) {
+            CharBuffer chunk = chunks[address >>> CHUNK_BITS].duplicate();
+            int from = address & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_WORDS - from);
+            chunk.position(from);
+            chunk.get(dst, offset, n);
+            address += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void write(int address, char[] src, int offset, int length) {
+        while (length > 0) {
+            CharBuffer chunk = chunks[address >>> CHUNK_BITS].duplicate();
+            int from = address & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_WORDS - from);
+            chunk.position(from);
+            chunk.put(src, offset, n);
+            address += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void grow(int words) {
+        if (words <= size)
+            return;
+        int needed = (words + CHUNK_WORDS - 1) >>> CHUNK_BITS;
+        if (needed > chunks.length)
+            chunks = Arrays.copyOf(chunks, Math.max(needed, chunks.length * 2));
+        for (int i = chunkCount; i < needed; i++) {
+            if (chunks[i] == null)
+                chunks[i] = ByteBuffer.allocateDirect(CHUNK_WORDS * 2).order(ByteOrder.nativeOrder()).asCharBuffer();
+            else
+                clearChunk(i);
+        }
+        chunkCount = needed;
+        size = words;
+    }
+
+    // the chunks are cleared when grow takes them again
+    public void reset(int words) {
+        chunkCount = 0;
+        size = 0;
+        grow(words);
+    }
+
+    private void clearChunk(int i) {
+        CharBuffer chunk = chunks[i].duplicate();
+        chunk.clear();
+        chunk.put(ZERO);
+    }
+
+    public String getName() {
+        return "off heap";
+    }
+}
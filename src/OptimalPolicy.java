@@ -0,0 +1,107 @@
+import java.util.Arrays;
+
+// Belady's optimal replacement for an offline trace of the lookups,
+// the line used again farthest in the future is replaced
+// if the run leaves the trace, the lines not known are taken as never used again
+// a prefetched line is not the line of the current lookup, its next use is found in the lookups
+// of its line, which are kept in trace order by line
+public class OptimalPolicy implements ReplacementPolicy {
+    private static final int NEVER = Integer.MAX_VALUE;
+
+    private final int ways;
+    private final int[] trace;    // line of every lookup
+    private final int[] nextUse;    // index of the next lookup of the same line, NEVER if none
+    private final int[] uses;    // indexes of the lookups of line 0, then of line 1 and so on
+    private final int[] firstUse;    // index in uses of the first lookup of each line, and the end for maxLine + 1
+    private final int[] slotNext;    // next use of the line of each slot, set * ways + way
+    private int position;    // index of the current lookup in the trace, -1 before the first
+    private boolean diverged;    // the lookups do not follow the trace any more
+
+    // constructor, the trace has the word address of every lookup
+    OptimalPolicy(int sets, int ways, int lineWords, int[] addresses) {
+        this.ways = ways;
+        int offsetBits = Integer.numberOfTrailingZeros(lineWords);
+        trace = new int[addresses.length];
+        int maxLine = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            trace[i] = addresses[i] >>> offsetBits;
+            maxLine = Math.max(maxLine, trace[i]);
+        }
+        nextUse = new int[trace.length];
+        int[] last = new int[maxLine + 1];
+        Arrays.fill(last, NEVER);
+        for (int i = trace.length - 1; i >= 0; i--) {
+            nextUse[i] = last[trace[i]];
+            last[trace[i]] = i;
+        }
+        // count the lookups of each line, then place their indexes after the ones of the lines before
+        firstUse = new int[maxLine + 2];
+        for (int line : trace)
+            firstUse[line + 1]++;
+        for (int i = 0; i <= maxLine; i++)
+            firstUse[i + 1] += firstUse[i];
+        uses = new int[trace.length];
+        int[] fillAt = Arrays.copyOf(firstUse, maxLine + 1);
+        for (int i = 0; i < trace.length; i++)
+            uses[fillAt[trace[i]]++] = i;
+        slotNext = new int[sets * ways];
+        position = -1;
+    }
+
+    public void access(int line) {
+        position++;
+        if (position >= trace.length || trace[position] != line)
+            diverged = true;
+    }
+
+    public void touch(int set, int way) {
+        slotNext[set * ways + way] = diverged ? NEVER : nextUse[position];
+    }
+
+    public void fill(int set, int way, int line) {
+        if (diverged || position >= 0 && trace[position] == line)
+            touch(set, way);
+        else
+            slotNext[set * ways + way] = nextUse(line);
+    }
+
+    // index of the first lookup of the line after the current one, NEVER if none
+    private int nextUse(int line) {
+        if (line + 1 >= firstUse.length)
+            return NEVER;
+        int low = firstUse[line];
+        int high = firstUse[line + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (uses[middle] <= position)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low < firstUse[line + 1] ? uses[low] : NEVER;
+    }
+
+    public int victim(int set) {
+        int base = set * ways;
+        int way = 0;
+        for (int i = 1; i < ways; i++) {
+            if (slotNext[base + i] > slotNext[base + way])
+                way = i;
+        }
+        return way;
+    }
+
+    public void clear() {
+        position = -1;
+        diverged = false;
+    }
+
+    // check if the lookups have followed the trace
+    public boolean isDiverged() {
+        return diverged;
+    }
+
+    public String getName() {
+        return "OPT";
+    }
+}
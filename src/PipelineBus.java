@@ -0,0 +1,67 @@
+import java.util.Vector;
+
+import pipeliningpreImpl.IOPort;
+import pipeliningpreImpl.MemoryPort;
+
+// memory, keyboard and printer of the machine seen by the pipeline
+public class PipelineBus implements MemoryPort, IOPort {
+    private final Memory memory;
+    private Console console;    // printer output, null to drop it
+    private volatile Vector<Character> keyboardInput;    // input not read yet, same as the CPU
+
+    // constructor
+    PipelineBus(Memory mem, Console c) {
+        memory = mem;
+        console = c;
+        keyboardInput = new Vector<>();
+    }
+
+    // the fetch stage may run on another thread than the memory stage, the accesses are
+    // synchronized so the fetch sees every store before it and a cache the memory stage changes
+    public synchronized int load(int address) {
+        return memory.loadCache(address);
+    }
+
+    // fetch does not go through the caches and is not counted, but a dirty line of write back
+    // mode is newer than memory, so a store to the code is fetched as the CPU would see it
+    public synchronized int fetch(int address) {
+        return memory.load(address);
+    }
+
+    public synchronized void store(int address, char value) {
+        memory.storeCache(address, value);
+    }
+
+    public int size() {
+        return memory.size();
+    }
+
+    // the keyboard is the only input device, a read takes the next typed character
+    public int read(int devID) {
+        if (keyboardInput.isEmpty())
+            return -1;
+        return keyboardInput.remove(0);
+    }
+
+    // device 1 prints a character and device 2 a number, same as OUT of the CPU
+    public void write(int devID, char value) {
+        if (console == null)
+            return;
+        if (devID == 1)
+            console.print("" + value);
+        else if (devID == 2)
+            console.print("" + (int) value);
+    }
+
+    // give the keyboard input, return false if the last input is not used up
+    public boolean setKeyboardInput(Vector<Character> key) {
+        if (!keyboardInput.isEmpty())
+            return false;
+        keyboardInput = key;
+        return true;
+    }
+
+    public void setConsole(Console c) {
+        console = c;
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+// hardware prefetcher of a cache, it watches the demand accesses and predicts the lines needed next
+// degree is the number of lines fetched at a time, distance how far ahead of the access the first one is
+// the memory counts what happens to the prefetched lines
+public abstract class Prefetcher {
+    public static final int MAX_DEGREE = 64;
+    private static final int FILTER_SIZE = 256;    // entries of the filter of lines replaced by prefetches
+
+    protected final int lineWords;
+    protected final int degree;
+    protected final int distance;
+
+    private final int[] replaced;    // line address + 1 of a line a prefetch has replaced, by the low bits
+
+    // statistics
+    private long issued;    // lines brought in
+    private long useful;    // prefetched lines hit by a demand access after they arrived
+    private long late;    // prefetched lines hit by a demand access before they arrived
+    private long unused;    // prefetched lines replaced before any demand access
+    private long polluting;    // demand misses of lines a prefetch has replaced
+
+    // constructor, lineWords is the line size of the cache
+    protected Prefetcher(int lineWords, int degree, int distance) {
+        if (degree < 1 || degree > MAX_DEGREE || distance < 1)
+            throw new IllegalArgumentException("Invalid prefetch degree or distance: " + degree + ", " + distance);
+        this.lineWords = lineWords;
+        this.degree = degree;
+        this.distance = distance;
+        replaced = new int[FILTER_SIZE];
+    }
+
+    // create a prefetcher of the name: next, stride or stream
+    public static Prefetcher create(String name, int lineWords, int degree, int distance) {
+        switch (name) {
+            case "next":
+                return new NextLinePrefetcher(lineWords, degree, distance);
+            case "stride":
+                return new StridePrefetcher(lineWords, degree, distance);
+            case "stream":
+                return new StreamPrefetcher(lineWords, degree, distance);
+            default:
+                throw new IllegalArgumentException("Unknown prefetcher: " + name);
+        }
+    }
+
+    // see a demand access of the instruction at pc, put the word addresses to prefetch into targets
+    // and return the number of them, at most degree
+    // miss is also true for the first hit of a prefetched line, so a stream keeps going when it is covered
+    public abstract int access(int pc, int address, boolean miss, int[] targets);
+
+    // forget the history
+    protected abstract void reset();
+
+    public abstract String getName();
+
+    // a prefetch has replaced the line at the address
+    void replaced(int lineAddress) {
+        replaced[(lineAddress / lineWords) & (FILTER_SIZE - 1)] = lineAddress + 1;
+    }
+
+    // a demand access has missed, count it if a prefetch replaced the line
+    void missed(int lineAddress) {
+        int i = (lineAddress / lineWords) & (FILTER_SIZE - 1);
+        if (replaced[i] == lineAddress + 1) {
+            replaced[i] = 0;
+            polluting++;
+        }
+    }
+
+    void countIssued() {
+        issued++;
+    }
+
+    void countUseful() {
+        useful++;
+    }
+
+    void countLate() {
+        late++;
+    }
+
+    void countUnused() {
+        unused++;
+    }
+
+    // forget the history and reset the counters
+    public void clear() {
+        reset();
+        Arrays.fill(replaced, 0);
+        issued = 0;
+        useful = 0;
+        late = 0;
+        unused = 0;
+        polluting = 0;
+    }
+
+    public long getIssued() {
+        return issued;
+    }
+
+    public long getUseful() {
+        return useful;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public long getUnused() {
+        return unused;
+    }
+
+    public long getPolluting() {
+        return polluting;
+    }
+
+    // describe the prefetcher and its counters
+    public String toString() {
+        return String.format("%s prefetcher, degree %d, distance %d: %d issued, %d useful, %d late, %d unused, %d polluting",
+                getName(), degree, distance, issued, useful, late, unused, polluting);
+    }
+}
@@ -0,0 +1,36 @@
+// random replacement with a fixed seed, so runs can be repeated
+public class RandomPolicy implements ReplacementPolicy {
+    private static final long SEED = 0x2545F4914F6CDD1DL;
+
+    private final int ways;
+    private long state;    // state of the xorshift generator
+
+    RandomPolicy(int sets, int ways) {
+        this.ways = ways;
+        state = SEED;
+    }
+
+    public void access(int line) {
+    }
+
+    public void touch(int set, int way) {
+    }
+
+    public void fill(int set, int way, int line) {
+    }
+
+    public int victim(int set) {
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        return (int) ((state >>> 1) % ways);
+    }
+
+    public void clear() {
+        state = SEED;
+    }
+
+    public String getName() {
+        return "random";
+    }
+}
@@ -0,0 +1,20 @@
+// chooses the line of a full cache set to replace
+// ways are numbered 0 to ways - 1 in each set, the cache fills empty ways first
+public interface ReplacementPolicy {
+    // a lookup of the line address (word address / words per line) starts
+    void access(int line);
+
+    // a lookup has hit the way
+    void touch(int set, int way);
+
+    // a line has been brought into the way, by a demand access or a prefetch
+    void fill(int set, int way, int line);
+
+    // choose the way to replace in a full set
+    int victim(int set);
+
+    // forget the history, the cache is empty
+    void clear();
+
+    String getName();
+}
@@ -6,15 +6,22 @@ import java.awt.event.*;
 import java.util.Vector;
 
 public class Simulator {
+    // snapshots of the machine shown a second while the CPU runs
+    private static final int FRAMES_PER_SECOND = 30;
+
     private final CPU cpu;
     private final Memory memory;
+    private final EventLog events;
+    private final Console console;
+    private final CpuWorker worker;    // runs the CPU off the event dispatch thread
+    private final Timer frameTimer;    // shows the snapshots of a run
 
     private JTable registerTable;
 
     private JTable memoryTable;
     private Label memoryLabel;
     private JButton expandButton;
-    private DefaultTableModel memoryTableModel;
+    private MemoryTableModel memoryTableModel;
 
     private JTextPane logTextPane;
 
@@ -25,6 +32,8 @@ public class Simulator {
 
     private JButton IPL;
     private JButton runButton;
+    private JButton pauseButton;
+    private JButton stopButton;
     private JButton stepButton;
     private JButton loadButton1;
     private JButton loadButton2;
@@ -44,9 +53,14 @@ public class Simulator {
         cpu = new CPU(memory); // create CPU
         initComponents(); // initiate all components on console
         initListener(); // initiate all listeners for components
-        memory.setTextPane(logTextPane); // link memory and log console
-        cpu.setTextPane(logTextPane); // link CPU and log console
-        cpu.setPrinterTextPane(printerTextPane); // link CPU and printer console
+        console = new TextPaneConsole(logTextPane, printerTextPane);
+        events = new EventLog(4096); // create the event log, read into the log console
+        events.setConsole(console);
+        memory.setEventLog(events); // link memory and event log
+        cpu.setEventLog(events); // link CPU and event log
+        cpu.setConsole(console); // link CPU and printer console
+        worker = new CpuWorker(cpu, memory, events, FRAMES_PER_SECOND);
+        frameTimer = new Timer(1000 / FRAMES_PER_SECOND, e -> showFrame());
     }
 
     // initiate components
@@ -82,18 +96,8 @@ public class Simulator {
         Label registerLabel = new Label("Register");
         registerLabel.setBounds(3, 0, 100, 30);
 
-        // memory
-        String[] memoryColumnName = {"Idx", "BiValue"};
-        String[][] memoryData = new String[2048][2];
-        for (int i = 0; i < 2048; i++) {
-            memoryData[i][0] = Integer.toString(i);
-        }
-        memoryTableModel = new DefaultTableModel(memoryData, memoryColumnName) {
-            @Override
-            public boolean isCellEditable(int rowIndex, int columnIndex) {
-                return columnIndex != 0;
-            }
-        };
+        // memory, the rows are read from the memory as they are drawn
+        memoryTableModel = new MemoryTableModel(memory);
         memoryTable = new JTable(memoryTableModel);
         memoryTable.setGridColor(Color.BLACK);
         memoryTable.setRowHeight(20);
@@ -155,17 +159,21 @@ public class Simulator {
 
         // buttons
         JPanel buttonPanel = new JPanel();
-        buttonPanel.setLayout(new GridLayout(1, 5));
-        buttonPanel.setBounds(2, 650, 400, 30);
+        buttonPanel.setLayout(new GridLayout(1, 7));
+        buttonPanel.setBounds(2, 650, 560, 30);
 
         IPL = new JButton("IPL");
         runButton = new JButton("Run");
+        pauseButton = new JButton("Pause");
+        stopButton = new JButton("Stop");
         stepButton = new JButton("Step");
         loadButton1 = new JButton("Load1");
         loadButton2 = new JButton("Load2");
 
         buttonPanel.add(IPL);
         buttonPanel.add(runButton);
+        buttonPanel.add(pauseButton);
+        buttonPanel.add(stopButton);
         buttonPanel.add(stepButton);
         buttonPanel.add(loadButton1);
         buttonPanel.add(loadButton2);
@@ -244,6 +252,7 @@ public class Simulator {
                         char ch = s.charAt(i);
                         if (ch != '0' && ch != '1' && ch != ',') {
                             printLog("Set Register Value Failed! Value Has Invalid Character");
+                            toBi(row, cpu.getRegister(row), registerTable);
                             refresh();
                             return;
                         } else if (ch != ',') {
@@ -251,12 +260,15 @@ public class Simulator {
                             count++;
                             if (count > 16) {
                                 printLog("Set Register Value Failed! Value Is Over Range");
+                                toBi(row, cpu.getRegister(row), registerTable);
                                 refresh();
                                 return;
                             }
                         }
                     }
                     cpu.setRegister(row, (char) Integer.parseInt(ss.toString(), 2));
+                    // redrawn with the commas even if the value is the same
+                    toBi(row, cpu.getRegister(row), registerTable);
                 }
                 refresh();
             }
@@ -271,43 +283,20 @@ public class Simulator {
             }
         });
 
-        // memory table listener
+        // memory table listener, an edited value is stored by the table model
         memoryTable.addKeyListener(new KeyAdapter() {
             public void keyReleased(KeyEvent e) {
-                // use key Enter to input value
-                if (e.getKeyChar() == '\n') {
-                    int row = memoryTable.getSelectedRow();
-                    int column = memoryTable.getSelectedColumn();
-                    String s = (String) memoryTable.getValueAt(row, column);
-                    StringBuilder ss = new StringBuilder();
-                    int count = 0;
-                    for (int i = 0; i < s.length(); i++) {
-                        char ch = s.charAt(i);
-                        if (ch != '0' && ch != '1' && ch != ',') {
-                            printLog("Set Memory Value Failed! Value Has Invalid Character");
-                            refresh();
-                            return;
-                        } else if (ch != ',') {
-                            ss.append(ch);
-                            count++;
-                            if (count > 16) {
-                                printLog("Set Memory Value Failed! Value Is Over Range");
-                                refresh();
-                                return;
-                            }
-                        }
-                    }
-                    memory.store(row, (char) Integer.parseInt(ss.toString(), 2));
-                    printLog("Set Memory[" + row + "] = " + ss);
-                }
                 refresh();
             }
         });
         memoryTable.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                if (registerTable.isEditing())
+                if (registerTable.isEditing()) {
+                    int row = registerTable.getEditingRow();
                     registerTable.getCellEditor().stopCellEditing();
+                    toBi(row, cpu.getRegister(row), registerTable);
+                }
                 registerTable.clearSelection();
                 refresh();
             }
@@ -330,6 +319,7 @@ public class Simulator {
                         }
                     }
                     inputTextField.setText("");
+                    refresh();
                 }
             }
         });
@@ -358,9 +348,11 @@ public class Simulator {
                             }
                             in.add((char) 4);
                         }
-                        cpu.setKeyboardInput(in);
+                        if (cpu.setKeyboardInput(in))
+                            runCPU();
                     }
                     keyboardTextField.setText("");
+                    refresh();
                 }
             }
         });
@@ -369,8 +361,8 @@ public class Simulator {
         ActionListener buttonListener = e -> {
             switch (e.getActionCommand()) {
                 case "IPL": {
+                    events.clear();
                     logTextPane.setText("-------Start-------");
-                    memoryTableModel.setRowCount(2048);
                     expandButton.setVisible(true);
                     memoryLabel.setText("Memory (2048 Words)");
                     memory.loadROM();
@@ -379,7 +371,17 @@ public class Simulator {
                     break;
                 }
                 case "Run":
-                    cpu.run();
+                    runCPU();
+                    break;
+                case "Pause":
+                    if (worker.isRunning() && !worker.isPaused())
+                        worker.pause();
+                    break;
+                case "Stop":
+                    if (worker.isRunning()) {
+                        worker.stop();
+                        showFrame();
+                    }
                     break;
                 case "Step":
                     cpu.stepRun();
@@ -416,13 +418,8 @@ public class Simulator {
                 }
                 case "Expand": {
                     memory.expand();
-                    for (int i = 2048; i < 4096; i++) {
-                        Vector<String> v = new Vector<>();
-                        v.add(Integer.toString(i));
-                        memoryTableModel.addRow(v);
-                    }
                     expandButton.setVisible(false);
-                    memoryLabel.setText("Memory (4096)");
+                    memoryLabel.setText("Memory (" + memory.size() + ")");
                     break;
                 }
             }
@@ -430,6 +427,8 @@ public class Simulator {
         };
         IPL.addActionListener(buttonListener);
         runButton.addActionListener(buttonListener);
+        pauseButton.addActionListener(buttonListener);
+        stopButton.addActionListener(buttonListener);
         stepButton.addActionListener(buttonListener);
         loadButton1.addActionListener(buttonListener);
         loadButton2.addActionListener(buttonListener);
@@ -437,36 +436,88 @@ public class Simulator {
         expandButton.addActionListener(buttonListener);
     }
 
-    // refresh the display value
+    // run the CPU on the worker thread, or go on after a pause
+    // the controls which change the machine are off until the run is over
+    private void runCPU() {
+        if (worker.isPaused()) {
+            worker.resume();
+            return;
+        }
+        if (worker.isRunning())
+            return;
+        refresh();
+        memoryTableModel.freeze();
+        setControlsEnabled(false);
+        worker.start(Long.MAX_VALUE);
+        frameTimer.start();
+    }
+
+    // show the output and the newest snapshot of the run, log how it stopped at its end
+    private void showFrame() {
+        worker.drainOutput(console);
+        CpuWorker.Snapshot s = worker.takeSnapshot();
+        if (s == null)
+            return;
+        for (int i = 0; i < registerTable.getRowCount(); i++) {
+            if ((s.changedRegisters & 1 << i) != 0)
+                toBi(i, s.getRegister(i), registerTable);
+        }
+        memoryTableModel.apply(s);
+        if (s.running)
+            return;
+        frameTimer.stop();
+        worker.join();
+        worker.drainOutput(console);
+        memoryTableModel.thaw();
+        setControlsEnabled(true);
+        if (!cpu.isHalted() && !cpu.isWaitingForInput())
+            printLog("Run stopped after " + worker.getRunInstructions() + " instructions, press Run to continue");
+        printLog("Run: " + worker + ", total " + cpu.getInstructionCount() + " instructions, "
+                + cpu.getCycleCount() + " cycles");
+        refresh();
+    }
+
+    private void setControlsEnabled(boolean flag) {
+        IPL.setEnabled(flag);
+        stepButton.setEnabled(flag);
+        loadButton1.setEnabled(flag);
+        loadButton2.setEnabled(flag);
+        cardReaderButton.setEnabled(flag);
+        expandButton.setEnabled(flag);
+        inputTextField.setEnabled(flag);
+        keyboardTextField.setEnabled(flag);
+        registerTable.setEnabled(flag);
+    }
+
+    // refresh the display value, only the registers and the words changed since the last refresh
+    // are redrawn, a step storing one word repaints one row of the memory table
     public void refresh() {
+        // the machine belongs to the thread of a run, the frames show it
+        if (worker.isRunning())
+            return;
+
+        // log
+        events.drain();
+
         // registers
+        int registers = cpu.takeChangedRegisters();
         for (int i = 0; i < registerTable.getRowCount(); i++) {
-            int value = cpu.getRegister(i);
-            toBi(i, value, registerTable);
+            if ((registers & 1 << i) != 0)
+                toBi(i, cpu.getRegister(i), registerTable);
         }
 
-        // memory
-        for (int i = 0; i < memoryTable.getRowCount(); i++) {
-            int value = memory.load(i);
-            toBi(i, value, memoryTable);
-        }
+        // memory, write the dirty cache lines back first
+        memory.flush();
+        memoryTableModel.refresh();
     }
 
-    private void toBi(int i, int value, JTable memoryTable) {
-        String s = Integer.toBinaryString(value);
-        s = "0000000000000000" + s;
-        s = s.substring(s.length() - 16);
-        StringBuilder ss = new StringBuilder();
-        for (int j = 0; j < s.length(); j++) {
-            ss.append(s.charAt(j));
-            if (j % 4 == 3 && j < 15)
-                ss.append(",");
-        }
-        memoryTable.setValueAt(ss.toString(), i, 1);
+    private void toBi(int i, int value, JTable table) {
+        table.setValueAt(MemoryTableModel.toBinary(value), i, 1);
     }
 
     // print log
     public void printLog(String s) {
+        events.drain(); // keep the order with the events before
         Document doc = logTextPane.getDocument();
         s = "\n" + s;
         SimpleAttributeSet attrSet = null;
@@ -0,0 +1,27 @@
+import java.io.PrintStream;
+
+// console which writes into plain streams, used when running without UI
+public class StreamConsole implements Console {
+    private final PrintStream logStream;    // log output, null to drop the log
+    private final PrintStream printerStream;    // printer output
+
+    // constructor
+    StreamConsole(PrintStream log, PrintStream printer) {
+        logStream = log;
+        printerStream = printer;
+    }
+
+    public void log(String s) {
+        if (logStream != null)
+            logStream.println(s);
+    }
+
+    public void error(String s) {
+        if (logStream != null)
+            logStream.println(s);
+    }
+
+    public void print(String s) {
+        printerStream.print(s);
+    }
+}
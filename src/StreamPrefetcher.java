@@ -0,0 +1,74 @@
+import java.util.Arrays;
+
+// stream prefetcher, it follows a few streams of misses to consecutive lines up or down,
+// a stream confirmed by two misses in the same direction runs ahead of its accesses
+public class StreamPrefetcher extends Prefetcher {
+    private static final int STREAMS = 4;
+    private static final int WINDOW = 4;    // lines away from the last miss of a stream still in the stream
+
+    private final int[] lastLine;    // line number of the last miss of each stream, -1 if the stream is free
+    private final int[] direction;    // 1 up, -1 down, 0 not known yet
+    private final int[] confirmed;    // misses in the direction of each stream
+    private final long[] used;    // time of the last miss of each stream, the least recent one is replaced
+    private long time;
+
+    // constructor
+    StreamPrefetcher(int lineWords, int degree, int distance) {
+        super(lineWords, degree, distance);
+        lastLine = new int[STREAMS];
+        direction = new int[STREAMS];
+        confirmed = new int[STREAMS];
+        used = new long[STREAMS];
+        reset();
+    }
+
+    public int access(int pc, int address, boolean miss, int[] targets) {
+        if (!miss)
+            return 0;
+        int line = address / lineWords;
+        time++;
+        int s = -1;
+        for (int i = 0; i < STREAMS; i++) {
+            int d = line - lastLine[i];
+            if (lastLine[i] >= 0 && d != 0 && Math.abs(d) <= WINDOW
+                    && (direction[i] == 0 || Integer.signum(d) == direction[i])) {
+                s = i;
+                break;
+            }
+        }
+        if (s < 0) {
+            // start a new stream in place of the least recent one
+            s = 0;
+            for (int i = 1; i < STREAMS; i++) {
+                if (used[i] < used[s])
+                    s = i;
+            }
+            lastLine[s] = line;
+            direction[s] = 0;
+            confirmed[s] = 0;
+            used[s] = time;
+            return 0;
+        }
+        direction[s] = Integer.signum(line - lastLine[s]);
+        confirmed[s]++;
+        lastLine[s] = line;
+        used[s] = time;
+        if (confirmed[s] < 2)
+            return 0;
+        for (int k = 0; k < degree; k++)
+            targets[k] = (line + (distance + k) * direction[s]) * lineWords;
+        return degree;
+    }
+
+    protected void reset() {
+        Arrays.fill(lastLine, -1);
+        Arrays.fill(direction, 0);
+        Arrays.fill(confirmed, 0);
+        Arrays.fill(used, 0);
+        time = 0;
+    }
+
+    public String getName() {
+        return "Stream";
+    }
+}
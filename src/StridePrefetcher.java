@@ -0,0 +1,59 @@
+import java.util.Arrays;
+
+// stride prefetcher with a reference prediction table indexed by the PC of the access,
+// an instruction accessing addresses a constant stride apart twice in a row gets the next ones prefetched
+public class StridePrefetcher extends Prefetcher {
+    private static final int ENTRIES = 64;    // entries of the table, a power of 2
+
+    private final int[] tags;    // PC + 1 of each entry, 0 if empty
+    private final int[] last;    // last address accessed by the instruction
+    private final int[] stride;
+    private final int[] confidence;    // 0 to 3, prefetch from 2
+
+    // constructor
+    StridePrefetcher(int lineWords, int degree, int distance) {
+        super(lineWords, degree, distance);
+        tags = new int[ENTRIES];
+        last = new int[ENTRIES];
+        stride = new int[ENTRIES];
+        confidence = new int[ENTRIES];
+    }
+
+    public int access(int pc, int address, boolean miss, int[] targets) {
+        int i = pc & (ENTRIES - 1);
+        if (tags[i] != pc + 1) {
+            tags[i] = pc + 1;
+            last[i] = address;
+            stride[i] = 0;
+            confidence[i] = 0;
+            return 0;
+        }
+        int s = address - last[i];
+        last[i] = address;
+        if (s == stride[i] && s != 0) {
+            if (confidence[i] < 3)
+                confidence[i]++;
+        } else {
+            if (confidence[i] > 0)
+                confidence[i]--;
+            else
+                stride[i] = s;
+            return 0;
+        }
+        if (confidence[i] < 2)
+            return 0;
+        // a stride smaller than a line still has to move to the next line
+        int step = Math.abs(s) >= lineWords ? s : (s > 0 ? lineWords : -lineWords);
+        for (int k = 0; k < degree; k++)
+            targets[k] = address + (distance + k) * step;
+        return degree;
+    }
+
+    protected void reset() {
+        Arrays.fill(tags, 0);
+    }
+
+    public String getName() {
+        return "Stride";
+    }
+}
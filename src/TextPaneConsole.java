@@ -0,0 +1,49 @@
+import java.awt.Color;
+
+import javax.swing.JTextPane;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+// console which writes into the log and printer panes of the UI
+public class TextPaneConsole implements Console {
+    private final JTextPane logTextPane;    // reference of log console in UI
+    private final JTextPane printerTextPane;    // reference of printer console in UI
+    private final SimpleAttributeSet errorAttrSet;    // red text for errors
+    private final SimpleAttributeSet printAttrSet;    // blue text for printer
+
+    // constructor
+    TextPaneConsole(JTextPane log, JTextPane printer) {
+        logTextPane = log;
+        printerTextPane = printer;
+        errorAttrSet = new SimpleAttributeSet();
+        StyleConstants.setForeground(errorAttrSet, Color.RED);
+        printAttrSet = new SimpleAttributeSet();
+        StyleConstants.setForeground(printAttrSet, Color.BLUE);
+    }
+
+    public void log(String s) {
+        append(logTextPane, "\n" + s, null);
+    }
+
+    public void error(String s) {
+        append(logTextPane, "\n" + s, errorAttrSet);
+    }
+
+    public void print(String s) {
+        append(printerTextPane, s, printAttrSet);
+    }
+
+    // insert text at the end of the pane and scroll to it
+    private void append(JTextPane pane, String s, AttributeSet attrSet) {
+        Document doc = pane.getDocument();
+        try {
+            doc.insertString(doc.getLength(), s, attrSet);
+        } catch (BadLocationException e) {
+            System.out.println("BadLocationException: " + e);
+        }
+        pane.setCaretPosition(doc.getLength());
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Vector;
+
+// reverse execution of the CPU
+// it steps back with the undo journal as long as the journal reaches, further back it restores
+// the newest checkpoint before and runs forward again, silently and with the keyboard inputs
+// given the first time, so going back over millions of instructions costs one checkpoint
+// interval of replay at most
+public class TimeTravel {
+    private final CPU cpu;
+    private final UndoJournal journal;
+    private final Checkpoints checkpoints;    // null when only the journal is used
+    private final long interval;    // instructions between two checkpoints, kept while replaying
+    private final ArrayList<Long> inputCounts;    // instruction count when each input was given
+    private final ArrayList<Vector<Character>> inputs;    // copy of each input
+    private long replayed;    // instructions run again
+
+    // constructor, the CPU keeps a journal of the records from now on
+    TimeTravel(CPU cpu, int records, Checkpoints checkpoints, long interval) {
+        this.cpu = cpu;
+        this.checkpoints = checkpoints;
+        this.interval = interval;
+        journal = new UndoJournal(records);
+        inputCounts = new ArrayList<>();
+        inputs = new ArrayList<>();
+        cpu.setUndoJournal(journal);
+    }
+
+    // give keyboard input to the CPU and remember it for replays, the inputs given after this point
+    // the last time are forgotten
+    public boolean setKeyboardInput(Vector<Character> input) {
+        long count = cpu.getInstructionCount();
+        Vector<Character> copy = new Vector<>(input);
+        if (!cpu.setKeyboardInput(input))
+            return false;
+        int n = inputCounts.size();
+        while (n > 0 && inputCounts.get(n - 1) >= count) {
+            n--;
+            inputCounts.remove(n);
+            inputs.remove(n);
+        }
+        inputCounts.add(count);
+        inputs.add(copy);
+        return true;
+    }
+
+    // go back n instructions, return the number of instructions gone back
+    public long stepBack(long n) {
+        long start = cpu.getInstructionCount();
+        long done = cpu.stepBack(n);
+        if (done < n && checkpoints != null && goTo(Math.max(0, start - n)))
+            done = start - cpu.getInstructionCount();
+        return done;
+    }
+
+    // go back to the instruction count, return false if no checkpoint is that old
+    public boolean goTo(long target) {
+        int id = checkpoints == null ? -1 : checkpoints.findBefore(target);
+        if (id < 0 || !checkpoints.restore(id))
+            return false;
+        replay(target, null);
+        return true;
+    }
+
+    // go back to the last time the CPU was at a breakpoint before the current instruction
+    // return false and stay if it never was as far back as the journal and the checkpoints reach
+    public boolean reverseContinue(boolean[] breakpoints) {
+        long n = journal.find(breakpoints);
+        if (n > 0) {
+            cpu.stepBack(n);
+            return true;
+        }
+        if (checkpoints == null)
+            return false;
+        // the checkpoints are run forward one by one, newest first, to find the last hit
+        long start = cpu.getInstructionCount();
+        long end = start;
+        int id;
+        while ((id = checkpoints.findBefore(end - 1)) >= 0 && checkpoints.restore(id)) {
+            long from = cpu.getInstructionCount();
+            long hit = replay(end, breakpoints);
+            if (hit >= 0)
+                return goTo(hit);
+            end = from;
+        }
+        goTo(start);
+        return false;
+    }
+
+    // run forward to the instruction count with the output off
+    // return the last count before it the CPU was at a breakpoint, -1 if none or no breakpoints
+    private long replay(long target, boolean[] breakpoints) {
+        Console console = cpu.getConsole();
+        EventLog events = cpu.getEventLog();
+        cpu.setConsole(null);
+        cpu.setEventLog(null);
+        long hit = -1;
+        int next = 0;
+        while (next < inputCounts.size() && inputCounts.get(next) < cpu.getInstructionCount())
+            next++;
+        try {
+            while (cpu.getInstructionCount() < target && !cpu.isHalted()) {
+                long count = cpu.getInstructionCount();
+                if (cpu.isWaitingForInput()) {
+                    if (next == inputCounts.size() || inputCounts.get(next) != count)
+                        break;
+                    cpu.setKeyboardInput(new Vector<>(inputs.get(next++)));
+                }
+                if (breakpoints != null && breakpoints[cpu.getRegister(7)])
+                    hit = count;
+                cpu.stepRun();
+                replayed++;
+                if (cpu.getInstructionCount() % interval == 0)
+                    checkpoints.take();
+            }
+        } finally {
+            cpu.setConsole(console);
+            cpu.setEventLog(events);
+        }
+        return hit;
+    }
+
+    public UndoJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public String toString() {
+        return journal + ", " + replayed + " instructions replayed";
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// reads a trace written by TraceWriter, one record a call of next
+// the file is read through a large direct buffer and decoded from a byte array, so cache and
+// branch models can be driven by a trace much faster than the program runs
+public class TraceReader implements Closeable {
+    private static final int BUFFER_SIZE = 4 << 20;
+    private static final int BATCH = 4096;    // records decoded at a time
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;    // undecoded part of the file
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    // records decoded ahead in a batch, the decoder keeps its state in locals that way
+    private final int[] kinds = new int[BATCH];
+    private final int[] first = new int[BATCH];    // PC or address
+    private final int[] second = new int[BATCH];    // IR or value
+    private final int[] eas = new int[BATCH];    // EA, -1 if none
+    private int count;    // records in the batch
+    private int index = -1;    // the last record returned
+
+    // the values the next records are differences to, PC and address by the kind of record
+    private final int[] last = {-1, 0};
+    private int ea;
+
+    // constructor, the header is checked
+    TraceReader(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        bytes = new byte[BUFFER_SIZE];
+        fill();
+        if (limit - position < 8 || getInt() != TraceWriter.MAGIC)
+            throw new IOException(fileName + ": not a trace");
+        int version = getInt();
+        if (version != TraceWriter.VERSION)
+            throw new IOException(fileName + ": trace version " + version + " is not supported");
+    }
+
+    // move the bytes left to the front and read more behind them
+    private void fill() throws IOException {
+        int left = limit - position;
+        System.arraycopy(bytes, position, bytes, 0, left);
+        position = 0;
+        limit = left;
+        buffer.clear();
+        buffer.limit(bytes.length - left);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.flip();
+        int n = buffer.remaining();
+        buffer.get(bytes, limit, n);
+        limit += n;
+    }
+
+    // read the next record, return its kind, TraceWriter.INSTRUCTION, LOAD or STORE, -1 at the end
+    public int next() throws IOException {
+        if (++index >= count) {
+            decode();
+            if (count == 0)
+                return -1;
+        }
+        return kinds[index];
+    }
+
+    // decode the next batch of records
+    private void decode() throws IOException {
+        index = 0;
+        count = 0;
+        if (limit - position < BATCH * TraceWriter.MAX_RECORD && !eof)
+            fill();
+        byte[] b = bytes;
+        boolean[] usesEa = TraceWriter.USES_EA;
+        int[] last = this.last;
+        int p = position;
+        int n = 0;
+        int lastEa = ea;
+        // a record is not decoded unless it is all there, or the file ends
+        int end = eof ? limit : limit - TraceWriter.MAX_RECORD;
+        while (n < BATCH && p < end) {
+            int header = b[p++] & 0xff;
+            int kind = header & 3;
+            // 0 for an instruction, its PC goes on from the one after the PC before
+            int k = (kind + 1) >> 1;
+            int delta = (header >>> 2) - 32;
+            if (delta == -32) {
+                int v = 0;
+                int shift = 0;
+                int x;
+                do {
+                    x = b[p++];
+                    v |= (x & 0x7f) << shift;
+                    shift += 7;
+                } while (x < 0);
+                delta = (v >>> 1) ^ -(v & 1);
+            }
+            int value = last[k] + delta + 1 - k;
+            last[k] = value;
+            int word = (b[p] & 0xff) << 8 | b[p + 1] & 0xff;
+            p += 2;
+            int v = 0;
+            int shift = 0;
+            int x;
+            do {
+                x = b[p++];
+                v |= (x & 0x7f) << shift;
+                shift += 7;
+            } while (x < 0);
+            lastEa += (v >>> 1) ^ -(v & 1);
+            kinds[n] = kind;
+            first[n] = value;
+            second[n] = word;
+            eas[n] = k == 0 && usesEa[word >> 10] ? lastEa : -1;
+            n++;
+        }
+        position = p;
+        count = n;
+        ea = lastEa;
+    }
+
+    private int getInt() {
+        int v = (bytes[position] & 0xff) << 24 | (bytes[position + 1] & 0xff) << 16
+                | (bytes[position + 2] & 0xff) << 8 | bytes[position + 3] & 0xff;
+        position += 4;
+        return v;
+    }
+
+    // PC of the last instruction record
+    public int getPc() {
+        return first[index];
+    }
+
+    public int getIr() {
+        return second[index];
+    }
+
+    // EA of the last instruction record, -1 if its opcode has none
+    public int getEa() {
+        return eas[index];
+    }
+
+    // address of the last load or store record
+    public int getAddress() {
+        return first[index];
+    }
+
+    public int getValue() {
+        return second[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // read a whole trace and print what it holds and how fast it is read
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java TraceReader trace");
+            System.exit(2);
+        }
+        long[] counts = new long[3];
+        long start = System.nanoTime();
+        try (TraceReader reader = new TraceReader(args[0])) {
+            int kind;
+            while ((kind = reader.next()) >= 0)
+                counts[kind]++;
+        } catch (IOException e) {
+            System.err.println("IOException: " + e.getMessage());
+            System.exit(1);
+        }
+        long time = System.nanoTime() - start;
+        long records = counts[0] + counts[1] + counts[2];
+        System.out.printf("%d records: %d instructions, %d loads, %d stores in %.3f ms (%.0f records a second)%n",
+                records, counts[0], counts[1], counts[2], time / 1e6, time == 0 ? 0 : records * 1e9 / time);
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// streams a binary trace of the instructions and the memory accesses of the CPU to a file
+// the file is the magic "CSTR" and the version, then the records, all of the same three fields:
+//   a header byte, the kind in bits 0-1, bits 2-7 a difference + 32 if it is in -31 to 31,
+//     else 0 and the zigzag varint of the difference follows
+//   a word in 2 bytes
+//   the zigzag varint of a second difference
+// INSTRUCTION  the difference of PC to the one after the PC before, IR, the difference of EA to
+//              the EA before, 0 if the opcode has no EA
+// LOAD, STORE  the difference of the address to the address before, the value, 0
+// the same layout for every kind lets the reader decode without branching on the kind,
+// most records take 4 bytes
+// records are put in a large direct buffer, it is written to the channel when it is full
+public class TraceWriter implements Closeable {
+    static final int MAGIC = 0x43535452;
+    static final int VERSION = 1;
+    static final int INSTRUCTION = 0;
+    static final int LOAD = 1;
+    static final int STORE = 2;
+    static final int MAX_RECORD = 16;    // bytes a record takes at most
+    private static final int BUFFER_SIZE = 4 << 20;
+
+    // opcodes whose EA is an address, the others do not get it in the trace
+    static final boolean[] USES_EA = new boolean[64];
+
+    static {
+        for (int op : new int[]{01, 02, 03, 04, 05, 010, 011, 012, 013, 014, 016, 017, 041, 042})
+            USES_EA[op] = true;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private int lastPc = -1;
+    private int lastEa;
+    private int lastAddress;
+    private long records;
+    private long bytes;
+
+    // constructor, the file is created or truncated
+    TraceWriter(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    // an instruction is executed, EA is kept only if the opcode uses it
+    void instruction(int pc, char ir, int ea) {
+        int eaDelta = 0;
+        if (USES_EA[ir >> 10]) {
+            eaDelta = ea - lastEa;
+            lastEa = ea;
+        }
+        put(INSTRUCTION, pc - (lastPc + 1), ir, eaDelta);
+        lastPc = pc;
+    }
+
+    // a word is loaded from the address
+    void load(int address, char value) {
+        put(LOAD, address - lastAddress, value, 0);
+        lastAddress = address;
+    }
+
+    // a word is stored to the address
+    void store(int address, char value) {
+        put(STORE, address - lastAddress, value, 0);
+        lastAddress = address;
+    }
+
+    private void put(int kind, int delta, char word, int delta2) {
+        if (buffer.remaining() < MAX_RECORD)
+            drain();
+        if (delta >= -31 && delta <= 31)
+            buffer.put((byte) (kind | (delta + 32) << 2));
+        else {
+            buffer.put((byte) kind);
+            putVarint(delta);
+        }
+        buffer.putChar(word);
+        putVarint(delta2);
+        records++;
+    }
+
+    // zigzag varint, small differences of both signs take one byte
+    private void putVarint(int n) {
+        int v = (n << 1) ^ (n >> 31);
+        while ((v & ~0x7f) != 0) {
+            buffer.put((byte) (v & 0x7f | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    // write the buffer to the file
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                bytes += channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    // get the number of records written
+    public long getRecords() {
+        return records;
+    }
+
+    // write what is left and close the file
+    @Override
+    public void close() throws IOException {
+        drain();
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Trace: %d records, %d bytes, %.2f bytes a record", records, bytes,
+                records == 0 ? 0 : (double) bytes / records);
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+// translate the hot parts of the program into compiled blocks and keep them by start address
+// a block runs from an address to the next jump (JZ, JNE, JCC, JMA, JSR, RFS, SOB, JGE), or up to an
+// instruction the compiled code does not run, HLT, TRAP, IN, OUT and the faulting ones are left to the interpreter
+// an address is compiled when the interpreter has reached it, or the addresses sharing its counter, HOT times,
+// a block whose code changes is cold again
+// every block is a class of a class loader of its own, so the class of a dropped block can be unloaded
+// the blocks are kept in chunks of CHUNK_WORDS addresses allocated when a block of them is compiled, and the
+// heat in a table of HEAT_SIZE counters by the low bits of the address, so neither is copied as memory grows
+public class Translator {
+    private static final int MAX_BLOCK_SIZE = 64;
+    private static final int HOT = 50;    // times an address is interpreted before it is compiled
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_WORDS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_WORDS - 1;
+    private static final int HEAT_SIZE = 4096;
+
+    // class loader of one compiled block, CPU and Block are the ones of the simulator
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(Translator.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    private final Memory memory;
+    private Block[][] blocks;    // chunks of the block starting at each address, null if none is translated
+    private final int[] heat = new int[HEAT_SIZE];    // times the interpreter has reached the addresses of a counter
+    private long translated;    // number of blocks translated
+
+    // constructor
+    Translator(Memory mem) {
+        memory = mem;
+        blocks = new Block[0][];
+    }
+
+    // get the block starting at the address, null if the interpreter has to run it
+    public Block getBlock(int address) {
+        int index = address >>> CHUNK_BITS;
+        if (index >= blocks.length) {
+            if (address >= memory.size())
+                return null;
+            blocks = Arrays.copyOf(blocks, index + 1);
+        }
+        Block[] chunk = blocks[index];
+        Block b = chunk == null ? null : chunk[address & CHUNK_MASK];
+        if (b != null && b.epoch != memory.getCodeEpoch()) {
+            // some code has been changed, keep the block only if all its words are unchanged
+            for (int i = 0; i < b.code.length; i++) {
+                if (memory.getDecoded(b.start + i) != b.code[i]) {
+                    b = null;
+                    chunk[address & CHUNK_MASK] = null;
+                    heat[address & (HEAT_SIZE - 1)] = 0;
+                    break;
+                }
+            }
+            if (b != null)
+                b.epoch = memory.getCodeEpoch();
+        }
+        if (b == null && ++heat[address & (HEAT_SIZE - 1)] >= HOT) {
+            heat[address & (HEAT_SIZE - 1)] = 0;
+            b = translate(address);
+            if (b != null) {
+                if (chunk == null)
+                    chunk = blocks[index] = new Block[CHUNK_WORDS];
+                chunk[address & CHUNK_MASK] = b;
+            }
+        }
+        return b;
+    }
+
+    // translate the block starting at the address
+    private Block translate(int address) {
+        Instruction[] code = new Instruction[MAX_BLOCK_SIZE];
+        int n = 0;
+        int size = memory.size();
+        while (n < MAX_BLOCK_SIZE && address + n < size) {
+            Instruction in = memory.getDecoded(address + n);
+            if (in == null) {
+                in = new Instruction(memory.load(address + n));
+                memory.setDecoded(address + n, in);
+            }
+            if (!BlockCompiler.canCompile(in))
+                break;
+            code[n++] = in;
+            if (in.opcode >= 010 && in.opcode <= 017)
+                break;
+        }
+        if (n == 0)
+            return null;
+        Instruction[] tmp = new Instruction[n];
+        System.arraycopy(code, 0, tmp, 0, n);
+        String name = "Block_" + address;
+        byte[] b = BlockCompiler.compile(name, address, tmp);
+        try {
+            Class<?> c = new Loader().define(name, b);
+            translated++;
+            return (Block) c.getConstructor(int.class, Instruction[].class, int.class)
+                    .newInstance(address, tmp, memory.getCodeEpoch());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // forget all blocks
+    public void clear() {
+        blocks = new Block[0][];
+        Arrays.fill(heat, 0);
+        translated = 0;
+    }
+
+    public long getTranslatedCount() {
+        return translated;
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Arrays;
+
+// tree pseudo LRU, a binary tree of ways - 1 bits per set points to the half used less recently
+// ways has to be a power of 2 up to 32
+public class TreePlruPolicy implements ReplacementPolicy {
+    private final int levels;    // log2 of ways
+    private final int[] bits;    // tree of each set, node n has children 2n and 2n + 1, the root is 1
+
+    TreePlruPolicy(int sets, int ways) {
+        if (Integer.bitCount(ways) != 1 || ways > 32)
+            throw new IllegalArgumentException("Tree PLRU needs a power of 2 up to 32 ways: " + ways);
+        levels = Integer.numberOfTrailingZeros(ways);
+        bits = new int[sets];
+    }
+
+    public void access(int line) {
+    }
+
+    // make every node on the path point away from the way
+    public void touch(int set, int way) {
+        int tree = bits[set];
+        int node = 1;
+        for (int level = levels - 1; level >= 0; level--) {
+            int b = (way >> level) & 1;
+            if (b == 0)
+                tree |= 1 << node;
+            else
+                tree &= ~(1 << node);
+            node = node * 2 + b;
+        }
+        bits[set] = tree;
+    }
+
+    public void fill(int set, int way, int line) {
+        touch(set, way);
+    }
+
+    // follow the nodes from the root
+    public int victim(int set) {
+        int tree = bits[set];
+        int node = 1;
+        int way = 0;
+        for (int level = 0; level < levels; level++) {
+            int b = (tree >> node) & 1;
+            way = way * 2 + b;
+            node = node * 2 + b;
+        }
+        return way;
+    }
+
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    public String getName() {
+        return "tree PLRU";
+    }
+}
@@ -0,0 +1,128 @@
+// ring buffer of undo records of the instructions the CPU has run, for stepping back
+// each record is one long, the top 4 bits are its kind:
+//   MEMORY   address in bits 16-59, the old word in bits 0-15
+//   REGISTER register index (as getRegister) in bits 16-23, the old value in bits 0-15
+//   INPUT    the keyboard char an IN has taken in bits 0-15
+//   STEP     the last record of an instruction, MAR in bits 0-15, MBR in bits 16-31, the cycles
+//            of the instruction in bits 32-55, the input flag + 1 in bits 56-57, bit 58 set if
+//            the instruction was counted in the instruction count, it follows an
+//            untagged record of PC in bits 0-15, IR in 16-31, CC in 32-47 and MFR in 48-63
+// the memory and register records of an instruction come before its step records, so the
+// journal read backwards gives the step first and then what to put back
+// when the ring is full, the records of the oldest instructions are dropped whole
+// the pipeline writes memory without steps, so it should not run with a journal
+public class UndoJournal {
+    static final int MEMORY = 1;
+    static final int REGISTER = 2;
+    static final int INPUT = 3;
+    static final int STEP = 4;
+
+    private final long[] ring;
+    private final int mask;
+    private long head;    // records ever written, the next one goes to head & mask
+    private long tail;    // first record of the oldest instruction still in the ring
+    private long steps;    // instructions in the ring
+    private long dropped;    // instructions dropped to make room
+
+    // constructor, the capacity is in records and rounded up to a power of 2
+    UndoJournal(int capacity) {
+        if (capacity < 64 || capacity > 1 << 28)
+            throw new IllegalArgumentException("Bad journal capacity: " + capacity);
+        ring = new long[Integer.highestOneBit(capacity - 1) << 1];
+        mask = ring.length - 1;
+    }
+
+    // the old word of a memory address, before a store of an instruction
+    void memory(int address, char old) {
+        push((long) MEMORY << 60 | (long) address << 16 | old);
+    }
+
+    // the old value of a register an instruction has changed
+    void register(int index, char old) {
+        push((long) REGISTER << 60 | index << 16 | old);
+    }
+
+    // the keyboard char an instruction has taken
+    void input(char c) {
+        push((long) INPUT << 60 | c);
+    }
+
+    // the end of an instruction with the registers before it
+    void step(char pc, char ir, char cc, char mfr, char mar, char mbr, int inputFlag, boolean counted, long cycles) {
+        push(pc | (long) ir << 16 | (long) cc << 32 | (long) mfr << 48);
+        push((long) STEP << 60 | (counted ? 1L << 58 : 0) | (long) (inputFlag + 1) << 56
+                | Math.min(cycles, 0xffffff) << 32 | (long) mbr << 16 | mar);
+        steps++;
+    }
+
+    private void push(long record) {
+        if (head - tail == ring.length)
+            dropOldest();
+        ring[(int) (head & mask)] = record;
+        head++;
+    }
+
+    // drop the records of the oldest instruction
+    private void dropOldest() {
+        while (tail < head) {
+            long record = ring[(int) (tail++ & mask)];
+            if (kind(record) == STEP) {
+                steps--;
+                dropped++;
+                return;
+            }
+        }
+        throw new IllegalStateException("One instruction has more undo records than the journal holds");
+    }
+
+    // take the newest record
+    long pop() {
+        return ring[(int) (--head & mask)];
+    }
+
+    // check if the newest record ends an instruction, or there is nothing left
+    boolean atStep() {
+        return head == tail || kind(ring[(int) ((head - 1) & mask)]) == STEP;
+    }
+
+    // the newest step has been taken
+    void popped() {
+        steps--;
+    }
+
+    // count the instructions to step back to the newest one that started at a breakpoint
+    // return -1 if none in the ring did
+    long find(boolean[] breakpoints) {
+        long n = 0;
+        for (long i = head - 1; i > tail; i--) {
+            long record = ring[(int) (i & mask)];
+            if (kind(record) != STEP || (record & 1L << 58) == 0)
+                continue;
+            n++;
+            if (breakpoints[(char) ring[(int) ((i - 1) & mask)]])
+                return n;
+        }
+        return -1;
+    }
+
+    static int kind(long record) {
+        return (int) (record >>> 60);
+    }
+
+    // get the number of instructions that can be stepped back
+    public long getSteps() {
+        return steps;
+    }
+
+    // drop all records, the state they lead back from is gone
+    public void clear() {
+        head = tail = 0;
+        steps = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Undo journal: %d instructions in %d of %d records (%d KB), %d dropped",
+                steps, head - tail, ring.length, ring.length * 8 / 1024, dropped);
+    }
+}
@@ -0,0 +1,10 @@
+package pipeliningpreImpl;
+
+// keyboard and printer seen by the pipeline
+public interface IOPort {
+    // read a word from the device, -1 if there is no input yet
+    int read(int devID);
+
+    // write a word to the device
+    void write(int devID, char value);
+}
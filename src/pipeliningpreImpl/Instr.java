@@ -0,0 +1,95 @@
+package pipeliningpreImpl;
+
+// an instruction in the pipeline, a record in the latches copied from stage to stage
+public class Instr {
+    // memory operation done in memory stage
+    public static final int NONE = 0;
+    public static final int LOAD = 1;
+    public static final int STORE = 2;
+
+    public long seq;    // sequence number given in decode
+    public int epoch;    // epoch of the fetch, stale instructions are dropped
+    public int pc;
+    public char word;
+    public boolean fetchFault;    // the PC was out of range when fetched
+    public int predictedPC;    // PC fetched after this instruction
+    public long rasCheckpoint;    // return address stack after this instruction was fetched, -1 for none
+
+    // decoded fields
+    public int opcode, reg, xreg, indexReg, addr;
+    public boolean indirect, leftShift;
+
+    // operands read in decode
+    public int x;    // index register for EA
+    public int r;    // Reg[reg], the source of STX, or Reg[3] for RFS
+    public int rx;    // Reg[xreg] of register to register instructions
+    public int r1;    // Reg[reg + 1] of DVD
+    public int cc;
+
+    // results
+    public boolean indirectDone;    // the indirect address has been read in execute
+    public int ea;
+    public int memOp;
+    public char storeValue;    // value of a STORE, STR and STX store r, TRAP stores the return address
+    public int dest1 = -1, dest2 = -1;    // registers written, -1 for none
+    public char value1, value2;
+    public boolean writesCC;
+    public char ccValue;
+    public int nextPC;
+    public boolean halt;
+    public boolean faulted;    // a machine fault was raised, no register is written
+    public char faultReturn;    // return address stored by memory stage when faulted
+
+    // reset for a new fetch
+    public void reset(int p, char w, int e) {
+        pc = p;
+        word = w;
+        epoch = e;
+        fetchFault = false;
+        predictedPC = p + 1;
+        rasCheckpoint = -1;
+        indirectDone = false;
+        memOp = NONE;
+        dest1 = dest2 = -1;
+        writesCC = false;
+        halt = false;
+        faulted = false;
+    }
+
+    // copy a record of the previous latch
+    public void copyFrom(Instr o) {
+        seq = o.seq;
+        epoch = o.epoch;
+        pc = o.pc;
+        word = o.word;
+        fetchFault = o.fetchFault;
+        predictedPC = o.predictedPC;
+        rasCheckpoint = o.rasCheckpoint;
+        opcode = o.opcode;
+        reg = o.reg;
+        xreg = o.xreg;
+        indexReg = o.indexReg;
+        addr = o.addr;
+        indirect = o.indirect;
+        leftShift = o.leftShift;
+        x = o.x;
+        r = o.r;
+        rx = o.rx;
+        r1 = o.r1;
+        cc = o.cc;
+        indirectDone = o.indirectDone;
+        ea = o.ea;
+        memOp = o.memOp;
+        storeValue = o.storeValue;
+        dest1 = o.dest1;
+        dest2 = o.dest2;
+        value1 = o.value1;
+        value2 = o.value2;
+        writesCC = o.writesCC;
+        ccValue = o.ccValue;
+        nextPC = o.nextPC;
+        halt = o.halt;
+        faulted = o.faulted;
+        faultReturn = o.faultReturn;
+    }
+}
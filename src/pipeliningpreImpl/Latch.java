@@ -0,0 +1,91 @@
+package pipeliningpreImpl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// pipeline register between two stages, a ring of preallocated instruction records
+// with a single producer and a single consumer, safe between two threads without locks
+// the producer fills the record from claim() and then publishes it,
+// the consumer reads the record from peek() and removes it when it is done
+public class Latch {
+    private final Instr[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();    // next record to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong();    // next record to write, written by the producer
+    private long headCache;    // head last seen by the producer
+    private long tailCache;    // tail last seen by the consumer
+
+    // constructor, the capacity is rounded up to a power of 2
+    public Latch(int capacity) {
+        int n = 1;
+        while (n < capacity)
+            n <<= 1;
+        slots = new Instr[n];
+        for (int i = 0; i < n; i++)
+            slots[i] = new Instr();
+        mask = n - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    // producer side
+
+    // check if there is no free record
+    public boolean isFull() {
+        long t = tail.get();
+        if (t - headCache < slots.length)
+            return false;
+        headCache = head.get();
+        return t - headCache >= slots.length;
+    }
+
+    // get the next free record to fill, null if the latch is full
+    public Instr claim() {
+        if (isFull())
+            return null;
+        return slots[(int) tail.get() & mask];
+    }
+
+    // make the claimed record visible to the consumer
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    // consumer side
+
+    // check if there is no record to read
+    public boolean isEmpty() {
+        long h = head.get();
+        if (h < tailCache)
+            return false;
+        tailCache = tail.get();
+        return h >= tailCache;
+    }
+
+    // get the oldest record without removing it, null if empty
+    public Instr peek() {
+        if (isEmpty())
+            return null;
+        return slots[(int) head.get() & mask];
+    }
+
+    // remove the oldest record, its slot can be claimed again
+    public void remove() {
+        head.lazySet(head.get() + 1);
+    }
+
+    // number of records, it can be called from any thread
+    public int size() {
+        long h = head.get();
+        return (int) (tail.get() - h);
+    }
+
+    // drop all records, only when no stage is running
+    public void clear() {
+        long t = tail.get();
+        head.set(t);
+        headCache = t;
+        tailCache = t;
+    }
+}
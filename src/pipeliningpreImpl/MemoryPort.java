@@ -0,0 +1,16 @@
+package pipeliningpreImpl;
+
+// memory seen by the pipeline
+public interface MemoryPort {
+    // load a word
+    int load(int address);
+
+    // fetch an instruction word, it may be called by another thread than load and store
+    int fetch(int address);
+
+    // store a word
+    void store(int address, char value);
+
+    // number of words, addresses from 0 to size - 1 are valid
+    int size();
+}
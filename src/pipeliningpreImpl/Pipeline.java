@@ -0,0 +1,476 @@
+package pipeliningpreImpl;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import pipeliningpreImpl.branch.BranchUnit;
+import pipeliningpreImpl.stage.Decode;
+import pipeliningpreImpl.stage.Execute;
+import pipeliningpreImpl.stage.Fetch;
+import pipeliningpreImpl.stage.Memory;
+import pipeliningpreImpl.stage.WriteBack;
+
+// cycle level 5 stage pipeline running the instruction set of the CPU
+// fetch predicts with the branch unit or not taken, jumps, traps and machine faults are resolved in execute,
+// results are forwarded from execute and memory, a load followed by a use stalls one cycle
+// a store to a word fetched since is a machine clear, the younger instructions are dropped and
+// fetch starts again after the store
+// the stages run in lockstep on one thread, or each on its own thread connected by the latches
+public class Pipeline {
+    // idle loops of a stage thread before it starts to yield the processor
+    private static final int SPIN_TRIES = 100;
+    // time the calling thread sleeps between two checks of a threaded run
+    private static final long POLL_NANOS = 50000;
+
+    private final MemoryPort memory;
+    private final IOPort io;
+    private final RegisterFile registers;
+
+    // pipeline registers between the stages
+    private final Latch IF_ID;
+    private final Latch ID_EX;
+    private final Latch EX_MEM;
+    private final Latch MEM_WB;
+
+    private final Fetch fetch;
+    private final Decode decode;
+    private final Execute execute;
+    private final Memory memoryStage;
+    private final WriteBack writeBack;
+
+    private volatile int epoch;    // changed on every redirect, instructions fetched before are dropped
+    private volatile long redirect;    // epoch << 32 | PC of the last redirect, a PC of -1 stops fetching
+    private volatile long redirectCheckpoint;    // return address stack to restore at the last redirect, -1 for none
+    private BranchUnit branchUnit;    // null to predict not taken
+    private final AtomicIntegerArray fetched;    // ring of the last fetched addresses, -1 for none
+    private int fetchCount;    // fetches so far, written by fetch only
+    private volatile int fence;    // orders the fetches and the stores of different threads
+    private long seq;    // sequence number of the next decoded instruction
+
+    // registers besides the scoreboard
+    private char PC;    // PC of the next instruction to retire
+    private char IR;    // last retired instruction
+    private char MAR;
+    private char MBR;
+    private char MFR;
+    private volatile boolean halted;    // HLT has retired
+    private volatile boolean waiting;    // IN is waiting for input in execute
+
+    // progress of the stages, each is written by one stage only
+    private volatile long issued;    // instructions decode has passed on
+    private volatile long executed;    // instructions execute has passed on
+    private volatile long memoryDone;    // instructions memory stage has passed on
+    private volatile long retired;
+    private volatile long dropped;    // wrong path instructions execute has dropped
+    private volatile long squashed;    // younger instructions memory stage has dropped after a machine clear
+    private long cleared;    // instructions in flight dropped by reset
+    private volatile long resolvedSeq;    // sequence number of the last jump execute has resolved
+    private volatile boolean recovering;    // decode has to rebuild the scoreboard after wrong path instructions
+    private volatile boolean stop;    // stop the stage threads
+
+    // statistics
+    private long cycles;
+    private long hostNanos;    // time spent in run and runThreaded
+    private long stallCycles;    // cycles decode waited for an operand
+    private long loadUseStallCycles;    // part of stallCycles waiting for an operand from memory stage
+    private long indirectCycles;    // extra execute cycles reading indirect addresses
+    private long flushes;    // redirects of fetch
+    private long flushedInstructions;    // instructions dropped by decode because of a redirect
+
+    // constructor, latches of one instruction as the classic pipeline
+    public Pipeline(MemoryPort mem, IOPort port) {
+        this(mem, port, 1);
+    }
+
+    // constructor, latches holding more instructions let the stage threads run ahead
+    public Pipeline(MemoryPort mem, IOPort port, int latchCapacity) {
+        memory = mem;
+        io = port;
+        registers = new RegisterFile();
+        IF_ID = new Latch(latchCapacity);
+        ID_EX = new Latch(latchCapacity);
+        EX_MEM = new Latch(latchCapacity);
+        MEM_WB = new Latch(latchCapacity);
+        // the instructions not past memory stage are the latches and one in each stage before,
+        // all fetched since the last redirect
+        fetched = new AtomicIntegerArray(Integer.highestOneBit(4 * latchCapacity + 4) * 2);
+        for (int i = 0; i < fetched.length(); i++)
+            fetched.set(i, -1);
+        fetch = new Fetch(this, IF_ID);
+        decode = new Decode(this, IF_ID, ID_EX);
+        execute = new Execute(this, ID_EX, EX_MEM);
+        memoryStage = new Memory(this, EX_MEM, MEM_WB);
+        writeBack = new WriteBack(this, MEM_WB);
+        resolvedSeq = -1;
+    }
+
+    // run in lockstep until HLT retires, the pipeline waits for input or the cycles are used up
+    public void run(long maxCycles) {
+        long start = System.nanoTime();
+        for (long i = 0; i < maxCycles && !halted; i++) {
+            cycle();
+            if (isDrainedForInput())
+                break;
+        }
+        hostNanos += System.nanoTime() - start;
+    }
+
+    // run one cycle, the stages are evaluated from the last to the first
+    // so every stage sees the latch its successor has emptied in this cycle
+    public void cycle() {
+        fetch.poll();
+        writeBack.cycle();
+        memoryStage.cycle();
+        execute.cycle();
+        decode.cycle();
+        fetch.cycle();
+        cycles++;
+    }
+
+    // run every stage on its own thread until HLT retires, the pipeline waits for input,
+    // the instructions are used up or the deadline of System.nanoTime() passes, 0 for none
+    // a stage without work spins, or with backoff spins a while and then yields the processor
+    public void runThreaded(long maxInstructions, long deadline, boolean busySpin) {
+        if (halted)
+            return;
+        long start = System.nanoTime();
+        long first = retired;
+        stop = false;
+        // execute sets it again if the input is still missing
+        waiting = false;
+        Thread[] threads = {
+                startStage(() -> {
+                    fetch.poll();
+                    return fetch.cycle();
+                }, "Fetch", busySpin),
+                startStage(decode, "Decode", busySpin),
+                startStage(execute, "Execute", busySpin),
+                startStage(memoryStage, "Memory", busySpin),
+                startStage(writeBack, "WriteBack", busySpin)
+        };
+        while (!halted && !isDrainedForInput() && retired - first < maxInstructions
+                && (deadline == 0 || System.nanoTime() - deadline < 0))
+            LockSupport.parkNanos(POLL_NANOS);
+        stop = true;
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        hostNanos += System.nanoTime() - start;
+    }
+
+    // start the thread of a stage
+    private Thread startStage(Stage stage, String name, boolean busySpin) {
+        Thread t = new Thread(() -> {
+            int idle = 0;
+            while (!stop) {
+                if (stage.cycle())
+                    idle = 0;
+                else if (!busySpin && ++idle > SPIN_TRIES)
+                    Thread.yield();
+            }
+        }, "Pipeline " + name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // check if IN waits for input and all instructions before it have retired
+    private boolean isDrainedForInput() {
+        return waiting && EX_MEM.size() == 0 && MEM_WB.size() == 0;
+    }
+
+    // empty the pipeline and start fetching from PC, registers are kept
+    public void reset() {
+        IF_ID.clear();
+        ID_EX.clear();
+        EX_MEM.clear();
+        MEM_WB.clear();
+        registers.cancelWrites();
+        cleared = issued - retired - dropped - squashed;
+        memoryDone = executed;
+        resolvedSeq = seq - 1;
+        recovering = false;
+        if (branchUnit != null)
+            branchUnit.reset();
+        epoch++;
+        redirectCheckpoint = -1;
+        redirect = (long) epoch << 32 | PC;
+        halted = false;
+        waiting = false;
+    }
+
+    // for outside to set register value, same index as the CPU, the pipeline is reset
+    public void setRegister(int index, char value) {
+        if (index < 7)
+            registers.set(index, value);
+        else if (index == 7)
+            PC = value;
+        else if (index == 8)
+            IR = value;
+        else if (index == 9)
+            registers.set(RegisterFile.CC, value);
+        else if (index == 10)
+            MAR = value;
+        else if (index == 11)
+            MBR = value;
+        else if (index == 12)
+            MFR = value;
+        reset();
+    }
+
+    // for outside to get register value, same index as the CPU
+    public int getRegister(int index) {
+        if (index < 7)
+            return registers.get(index);
+        switch (index) {
+            case 7:
+                return PC;
+            case 8:
+                return IR;
+            case 9:
+                return registers.get(RegisterFile.CC);
+            case 10:
+                return MAR;
+            case 11:
+                return MBR;
+            case 12:
+                return MFR;
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+
+    // interface of the stages
+
+    public MemoryPort getMemory() {
+        return memory;
+    }
+
+    // use a branch unit in fetch, null to predict not taken, only when the pipeline is not running
+    public void setBranchUnit(BranchUnit unit) {
+        branchUnit = unit;
+    }
+
+    public BranchUnit getBranchUnit() {
+        return branchUnit;
+    }
+
+    public IOPort getIO() {
+        return io;
+    }
+
+    public RegisterFile getRegisters() {
+        return registers;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    // give a sequence number to a decoded instruction
+    public long nextSeq() {
+        return seq++;
+    }
+
+    // the last redirect, epoch << 32 | PC
+    public long getRedirect() {
+        return redirect;
+    }
+
+    public long getRedirectCheckpoint() {
+        return redirectCheckpoint;
+    }
+
+    // drop the instructions fetched so far and fetch from the PC in the next cycle, -1 to stop fetching
+    public void redirect(int pc) {
+        redirect(pc, -1);
+    }
+
+    // redirect after a mispredicted jump, the return address stack goes back to the checkpoint
+    // return the epoch of the instructions fetched from now on
+    public synchronized int redirect(int pc, long checkpoint) {
+        epoch++;
+        redirectCheckpoint = checkpoint;
+        redirect = (long) epoch << 32 | (pc & 0xFFFFFFFFL);
+        flushes++;
+        return epoch;
+    }
+
+    // redirect for an instruction fetched in the epoch, return false and do nothing
+    // if a machine clear has dropped the instruction since
+    public synchronized boolean redirect(int pc, long checkpoint, int from) {
+        if (from != epoch)
+            return false;
+        redirect(pc, checkpoint);
+        return true;
+    }
+
+    // fetch is about to read the word at the address
+    public void recordFetch(int address) {
+        fetched.set(fetchCount++ & fetched.length() - 1, address);
+        // a store after this sees the address, or the fetch sees the store
+        if (fence != 0)
+            fence = 0;
+    }
+
+    // check if the word at the address may have been fetched by an instruction in flight,
+    // memory stage calls it after the store, an older fetch gives a clear which is not needed
+    public boolean isFetched(int address) {
+        fence = 0;
+        for (int i = 0; i < fetched.length(); i++) {
+            if (fetched.get(i) == address)
+                return true;
+        }
+        return false;
+    }
+
+    public void setWaiting(boolean flag) {
+        waiting = flag;
+    }
+
+    public void setMachineFault(char mfr) {
+        MFR = mfr;
+    }
+
+    // keep the last memory access of memory stage
+    public void setMemoryAccess(int address, char value) {
+        MAR = (char) address;
+        MBR = value;
+    }
+
+    // an instruction leaves write back
+    public void retire(Instr in) {
+        PC = (char) in.nextPC;
+        IR = in.word;
+        if (in.halt)
+            halted = true;
+        retired++;
+    }
+
+    public void countIssued() {
+        issued++;
+    }
+
+    public void countExecuted() {
+        executed++;
+    }
+
+    public void countMemoryDone() {
+        memoryDone++;
+    }
+
+    // check if all instructions execute has passed on have done their memory access
+    public boolean isMemoryIdle() {
+        return memoryDone == executed;
+    }
+
+    // instructions decode has passed on which have left the pipeline
+    public boolean isEmptyAfterDecode() {
+        return retired + dropped + squashed + cleared == issued;
+    }
+
+    // execute dropped an instruction issued after a redirect, its writes stay reserved
+    public void dropWrongPath() {
+        dropped++;
+        recovering = true;
+    }
+
+    // memory stage dropped an instruction younger than a machine clear, its writes stay reserved
+    public void squash() {
+        squashed++;
+        recovering = true;
+    }
+
+    public boolean isRecovering() {
+        return recovering;
+    }
+
+    // all wrong path instructions have gone, drop their reservations
+    public void finishRecovery() {
+        registers.cancelWrites();
+        recovering = false;
+    }
+
+    // execute has resolved a jump
+    public void setResolved(long seq) {
+        resolvedSeq = seq;
+    }
+
+    public long getResolved() {
+        return resolvedSeq;
+    }
+
+    public void countStall(boolean loadUse) {
+        stallCycles++;
+        if (loadUse)
+            loadUseStallCycles++;
+    }
+
+    public void countIndirect() {
+        indirectCycles++;
+    }
+
+    public void countFlushed() {
+        flushedInstructions++;
+    }
+
+    // state and statistics
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public long getRetired() {
+        return retired;
+    }
+
+    public long getStallCycles() {
+        return stallCycles;
+    }
+
+    public long getLoadUseStallCycles() {
+        return loadUseStallCycles;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getFlushedInstructions() {
+        return flushedInstructions + dropped + squashed;
+    }
+
+    public long getHostNanos() {
+        return hostNanos;
+    }
+
+    public double getCPI() {
+        return retired == 0 ? 0 : (double) cycles / retired;
+    }
+
+    public String getStatistics() {
+        if (cycles == 0)
+            return String.format("%d instructions on stage threads, %d flushes (%d instructions dropped)",
+                    retired, flushes, getFlushedInstructions());
+        return String.format("%d instructions in %d cycles, CPI %.3f, %d stall cycles (%d load-use), "
+                        + "%d indirect cycles, %d flushes (%d instructions dropped)",
+                retired, cycles, getCPI(), stallCycles, loadUseStallCycles, indirectCycles, flushes, getFlushedInstructions());
+    }
+}
@@ -0,0 +1,88 @@
+package pipeliningpreImpl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// registers of the pipeline with a scoreboard of the writes in flight
+// a write is reserved in decode, its value is forwarded as soon as it is produced
+// in execute or memory, and it is committed in write back
+// only decode reserves, so the scoreboard can be shared by stages on different threads
+public class RegisterFile {
+    // register numbers of the scoreboard, 0 - 3 are Reg[0] - Reg[3]
+    public static final int XR1 = 4;    // XReg[1] - XReg[3] are 4 - 6
+    public static final int CC = 7;
+    public static final int COUNT = 8;
+
+    private final char[] value = new char[COUNT];    // committed values
+    private final AtomicLongArray writer = new AtomicLongArray(COUNT);    // sequence number of the youngest write in flight, -1 for none
+    private final AtomicLongArray forward = new AtomicLongArray(COUNT);    // sequence number << 16 | value of the last produced write
+    private final boolean[] fromMemory = new boolean[COUNT];    // the youngest write gets its value in memory stage
+
+    // constructor
+    public RegisterFile() {
+        clear();
+    }
+
+    // check if the register can be read now
+    public boolean isReady(int r) {
+        long w = writer.get(r);
+        return w < 0 || forward.get(r) >>> 16 == w;
+    }
+
+    // check if the register waits for a value from memory stage
+    public boolean isWaitingForMemory(int r) {
+        return !isReady(r) && fromMemory[r];
+    }
+
+    // read the register, the forwarded value if there is a write in flight
+    public char read(int r) {
+        return writer.get(r) < 0 ? value[r] : (char) forward.get(r);
+    }
+
+    // reserve a write of the instruction with the sequence number
+    public void reserve(int r, long seq, boolean memory) {
+        fromMemory[r] = memory;
+        writer.set(r, seq);
+    }
+
+    // forward the value of a write before it is committed
+    public void produce(int r, long seq, char v) {
+        if (writer.get(r) == seq)
+            forward.set(r, seq << 16 | v);
+    }
+
+    // commit a write
+    public void commit(int r, long seq, char v) {
+        value[r] = v;
+        writer.compareAndSet(r, seq, -1);
+    }
+
+    // drop the reservation of a write which does not happen
+    public void release(int r, long seq) {
+        writer.compareAndSet(r, seq, -1);
+    }
+
+    // drop all writes in flight
+    public void cancelWrites() {
+        for (int i = 0; i < COUNT; i++)
+            writer.set(i, -1);
+    }
+
+    // get the committed value
+    public char get(int r) {
+        return value[r];
+    }
+
+    // set the committed value, only when no write is in flight
+    public void set(int r, char v) {
+        value[r] = v;
+    }
+
+    // clear all values and writes in flight
+    public void clear() {
+        for (int i = 0; i < COUNT; i++) {
+            value[i] = 0;
+            writer.set(i, -1);
+            forward.set(i, -1);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package pipeliningpreImpl;
+
+// a stage of the pipeline
+public interface Stage {
+    // do the work of one cycle, return false if the stage could not move
+    boolean cycle();
+}
@@ -1,50 +1,72 @@
 package pipeliningpreImpl;
 
-import java.util.concurrent.SynchronousQueue;
-
-import pipeliningpreImpl.stage.Decode;
-import pipeliningpreImpl.stage.Execute;
-import pipeliningpreImpl.stage.Fetch;
-import pipeliningpreImpl.stage.Memory;
-import pipeliningpreImpl.stage.WriteBack;
-
+// run a small program on the pipeline in lockstep and on stage threads, print the statistics
 public class Test {
 
     public static void main(String[] args) {
-        SynchronousQueue<Integer> IF_ID = new SynchronousQueue<Integer>(true);
-        SynchronousQueue<Integer> ID_EX = new SynchronousQueue<Integer>(true);
-        SynchronousQueue<Integer> EX_MEM = new  SynchronousQueue<Integer>(true);
-        SynchronousQueue<Integer> MEM_WB = new  SynchronousQueue<Integer>(true);
-
-        Fetch fetch = new Fetch(IF_ID);
-        Decode decode = new Decode(IF_ID, ID_EX);
-        Execute execute = new Execute(ID_EX, EX_MEM);
-        Memory memory = new Memory(EX_MEM, MEM_WB);
-        WriteBack writeback = new WriteBack(MEM_WB);
-
-        Thread t1 = new Thread(fetch);
-        Thread t2 = new Thread(decode);
-        Thread t3 = new Thread(execute);
-        Thread t4 = new Thread(memory);
-        Thread t5 = new Thread(writeback);
-
-        t1.start();
-        t2.start();
-        t3.start();
-        t4.start();
-        t5.start();
-
-        try {
-            t1.join();
-            t2.join();
-            t3.join();
-            t4.join();
-            t5.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        // a stage thread spins without yielding if "spin" is given
+        boolean busySpin = args.length > 0 && args[0].equals("spin");
+        run(false, busySpin);
+        run(true, busySpin);
+    }
+
+    // run the program on a new pipeline
+    private static void run(boolean threaded, boolean busySpin) {
+        final char[] words = new char[2048];
+        MemoryPort memory = new MemoryPort() {
+            public int load(int address) {
+                return words[address];
+            }
+
+            public int fetch(int address) {
+                return words[address];
+            }
 
+            public void store(int address, char value) {
+                words[address] = value;
+            }
+
+            public int size() {
+                return words.length;
+            }
+        };
+        IOPort io = new IOPort() {
+            public int read(int devID) {
+                return -1;
+            }
+
+            public void write(int devID, char value) {
+                System.out.println("OUT " + (int) value);
+            }
+        };
+
+        // add 3 to R1 30000 times, X1 holds the base address of the program
+        words[29] = 3;
+        words[30] = 32;
+        words[31] = 30000;
+        int pc = 32;
+        words[pc++] = word(041, 0, 1, false, 30);    // LDX X1, 30
+        words[pc++] = word(01, 0, 0, false, 31);    // LDR R0, 31
+        words[pc++] = word(06, 0, 0, false, 0);    // AIR R0, 0     load-use stall on R0
+        words[pc++] = word(03, 1, 0, false, 0);    // LDA R1, 0
+        words[pc++] = word(04, 1, 0, false, 29);    // AMR R1, 29    loop
+        words[pc++] = word(016, 0, 1, false, 4);    // SOB R0, 4(X1) flush when taken
+        words[pc++] = word(062, 1, 0, false, 2);    // OUT R1, 2
+        words[pc++] = word(0, 0, 0, false, 0);    // HLT
+
+        Pipeline pipeline = new Pipeline(memory, io, threaded ? 8 : 1);
+        pipeline.setRegister(7, (char) 32);
+        if (threaded)
+            pipeline.runThreaded(Long.MAX_VALUE, 0, busySpin);
+        else
+            pipeline.run(Long.MAX_VALUE);
+        System.out.printf("%s: %s in %.3f ms%n", threaded ? "Threads" : "Lockstep",
+                pipeline.getStatistics(), pipeline.getHostNanos() / 1e6);
+    }
 
+    // encode an instruction
+    private static char word(int opcode, int reg, int xreg, boolean indirect, int addr) {
+        return (char) (opcode << 10 | reg << 8 | xreg << 6 | (indirect ? 0x20 : 0) | addr);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+package pipeliningpreImpl.branch;
+
+// predicts the direction of conditional jumps
+public interface BranchPredictor {
+    // predict if the jump at the PC is taken
+    boolean predict(int pc);
+
+    // learn the direction the jump at the PC has taken
+    void update(int pc, boolean taken);
+
+    // name shown in the statistics
+    String getName();
+}
@@ -0,0 +1,42 @@
+package pipeliningpreImpl.branch;
+
+import java.util.Arrays;
+
+// direct mapped buffer of the targets of taken jumps, tagged with the PC of the jump
+public class BranchTargetBuffer {
+    private final int[] tags;    // PC of the jump in each entry, -1 for empty
+    private final char[] targets;
+    private final int mask;
+
+    // constructor, the number of entries is rounded up to a power of 2
+    public BranchTargetBuffer(int entries) {
+        int n = 1;
+        while (n < entries)
+            n <<= 1;
+        tags = new int[n];
+        targets = new char[n];
+        mask = n - 1;
+        clear();
+    }
+
+    // get the target of the jump at the PC, -1 if it is not in the buffer
+    public int lookup(int pc) {
+        int i = pc & mask;
+        return tags[i] == pc ? targets[i] : -1;
+    }
+
+    // keep the target of a taken jump
+    public void update(int pc, int target) {
+        int i = pc & mask;
+        tags[i] = pc;
+        targets[i] = (char) target;
+    }
+
+    public int size() {
+        return tags.length;
+    }
+
+    public void clear() {
+        Arrays.fill(tags, -1);
+    }
+}
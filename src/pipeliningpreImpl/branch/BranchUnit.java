@@ -0,0 +1,183 @@
+package pipeliningpreImpl.branch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// branch prediction of fetch: a direction predictor for conditional jumps, a branch
+// target buffer for the targets and a return address stack for JSR and RFS
+// fetch predicts and execute resolves, statistics are kept for every jump PC
+public class BranchUnit {
+    // PCs with statistics, the memory has at most 4096 words
+    private static final int MAX_PC = 4096;
+
+    private final BranchPredictor predictor;
+    private final BranchTargetBuffer btb;
+    private final ReturnAddressStack ras;
+
+    // statistics of each PC, updated in execute
+    private final int[] executed = new int[MAX_PC];
+    private final int[] taken = new int[MAX_PC];
+    private final int[] correct = new int[MAX_PC];
+    private final byte[] opcodes = new byte[MAX_PC];
+    private long btbLookups;    // taken predictions which needed a target, counted in fetch
+    private long btbHits;
+    private long returns;    // RFS resolved
+    private long returnsCorrect;
+
+    // constructor
+    public BranchUnit(BranchPredictor predictor, int btbEntries, int rasDepth) {
+        this.predictor = predictor;
+        btb = new BranchTargetBuffer(btbEntries);
+        ras = new ReturnAddressStack(rasDepth);
+    }
+
+    // create a unit with the predictor of the name: static, 2bit or gshare, null if unknown
+    public static BranchUnit create(String name) {
+        BranchPredictor p;
+        switch (name) {
+            case "static":
+                p = new StaticPredictor();
+                break;
+            case "2bit":
+                p = new TwoBitPredictor(1024);
+                break;
+            case "gshare":
+                p = new GsharePredictor(10);
+                break;
+            default:
+                return null;
+        }
+        return new BranchUnit(p, 256, 16);
+    }
+
+    // predict the next PC after the word fetched at the PC
+    public int predict(int pc, char word) {
+        int opcode = word >> 10;
+        switch (opcode) {
+            case 014: // JSR
+                ras.push(pc + 1);
+                return target(pc);
+            case 015: // RFS
+            {
+                int t = ras.pop();
+                return t >= 0 ? t : pc + 1;
+            }
+            case 013: // JMA
+                return target(pc);
+            case 010: // JZ
+            case 011: // JNE
+            case 012: // JCC
+            case 016: // SOB
+            case 017: // JGE
+                return predictor.predict(pc) ? target(pc) : pc + 1;
+            default:
+                return pc + 1;
+        }
+    }
+
+    // the target of a jump predicted taken, fall through if the target is unknown
+    private int target(int pc) {
+        btbLookups++;
+        int t = btb.lookup(pc);
+        if (t < 0)
+            return pc + 1;
+        btbHits++;
+        return t;
+    }
+
+    // state of the return address stack to restore when the jump fetched last was mispredicted
+    public long checkpoint() {
+        return ras.checkpoint();
+    }
+
+    public void restore(long checkpoint) {
+        ras.restore(checkpoint);
+    }
+
+    // learn the outcome of a jump resolved in execute
+    public void resolve(int pc, int opcode, int nextPC, int predictedPC) {
+        boolean isTaken = nextPC != pc + 1;
+        if (opcode != 013 && opcode != 014 && opcode != 015) // conditional
+            predictor.update(pc, isTaken);
+        if (opcode == 015) {
+            returns++;
+            if (nextPC == predictedPC)
+                returnsCorrect++;
+        } else if (isTaken)
+            btb.update(pc, nextPC);
+        if (pc < MAX_PC) {
+            executed[pc]++;
+            if (isTaken)
+                taken[pc]++;
+            if (nextPC == predictedPC)
+                correct[pc]++;
+            opcodes[pc] = (byte) opcode;
+        }
+    }
+
+    // clear the return address stack, the pipeline is emptied
+    public void reset() {
+        ras.clear();
+    }
+
+    public long getResolved() {
+        long n = 0;
+        for (int e : executed)
+            n += e;
+        return n;
+    }
+
+    public long getCorrect() {
+        long n = 0;
+        for (int c : correct)
+            n += c;
+        return n;
+    }
+
+    // summary and the PCs with the most mispredictions
+    public String getReport(int top) {
+        long resolved = getResolved();
+        long right = getCorrect();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: %d jumps, %.2f%% predicted, %d mispredicted, BTB %d entries %.2f%% hits, %d returns %.2f%% predicted by RAS",
+                predictor.getName(), resolved, percent(right, resolved), resolved - right,
+                btb.size(), percent(btbHits, btbLookups), returns, percent(returnsCorrect, returns)));
+        List<Integer> pcs = new ArrayList<>();
+        for (int pc = 0; pc < MAX_PC; pc++) {
+            if (executed[pc] > correct[pc])
+                pcs.add(pc);
+        }
+        pcs.sort((a, b) -> (executed[b] - correct[b]) - (executed[a] - correct[a]));
+        for (int i = 0; i < pcs.size() && i < top; i++) {
+            int pc = pcs.get(i);
+            sb.append(String.format("%n  PC %4d %s: %d executed, %d taken, %.2f%% predicted",
+                    pc, name(opcodes[pc]), executed[pc], taken[pc], percent(correct[pc], executed[pc])));
+        }
+        return sb.toString();
+    }
+
+    private static double percent(long a, long b) {
+        return b == 0 ? 0 : a * 100.0 / b;
+    }
+
+    private static String name(int opcode) {
+        switch (opcode) {
+            case 010:
+                return "JZ ";
+            case 011:
+                return "JNE";
+            case 012:
+                return "JCC";
+            case 013:
+                return "JMA";
+            case 014:
+                return "JSR";
+            case 015:
+                return "RFS";
+            case 016:
+                return "SOB";
+            default:
+                return "JGE";
+        }
+    }
+}
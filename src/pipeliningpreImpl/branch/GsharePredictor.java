@@ -0,0 +1,37 @@
+package pipeliningpreImpl.branch;
+
+import java.util.Arrays;
+
+// gshare, 2 bit counters indexed by the PC xor the global history of directions
+// the history is updated when a jump is resolved, not when it is predicted
+public class GsharePredictor implements BranchPredictor {
+    private final byte[] counters;
+    private final int mask;
+    private final int historyBits;
+    private int history;    // directions of the last jumps, the newest in bit 0
+
+    // constructor, 2 ^ historyBits counters
+    public GsharePredictor(int historyBits) {
+        this.historyBits = historyBits;
+        counters = new byte[1 << historyBits];
+        mask = counters.length - 1;
+        Arrays.fill(counters, (byte) 1);
+    }
+
+    public boolean predict(int pc) {
+        return counters[(pc ^ history) & mask] >= 2;
+    }
+
+    public void update(int pc, boolean taken) {
+        int i = (pc ^ history) & mask;
+        if (taken && counters[i] < 3)
+            counters[i]++;
+        else if (!taken && counters[i] > 0)
+            counters[i]--;
+        history = ((history << 1) | (taken ? 1 : 0)) & mask;
+    }
+
+    public String getName() {
+        return "gshare (" + historyBits + " history bits)";
+    }
+}
@@ -0,0 +1,51 @@
+package pipeliningpreImpl.branch;
+
+// circular stack of the return addresses of JSR, popped by RFS
+// the oldest address is overwritten when the stack is full
+public class ReturnAddressStack {
+    private final char[] stack;
+    private final int mask;
+    private int top;    // number of pushes minus pops, the top entry is top - 1
+    private int count;    // entries which hold an address
+
+    // constructor, the depth is rounded up to a power of 2
+    public ReturnAddressStack(int depth) {
+        int n = 1;
+        while (n < depth)
+            n <<= 1;
+        stack = new char[n];
+        mask = n - 1;
+    }
+
+    public void push(int address) {
+        stack[top & mask] = (char) address;
+        top++;
+        if (count < stack.length)
+            count++;
+    }
+
+    // pop the top address, -1 if the stack is empty
+    public int pop() {
+        if (count == 0)
+            return -1;
+        count--;
+        top--;
+        return stack[top & mask];
+    }
+
+    // state to go back to when a jump was mispredicted, count << 48 | top << 16 | top entry
+    public long checkpoint() {
+        return (long) count << 48 | (top & 0xFFFFFFFFL) << 16 | stack[(top - 1) & mask];
+    }
+
+    public void restore(long checkpoint) {
+        count = (int) (checkpoint >>> 48);
+        top = (int) (checkpoint >>> 16);
+        stack[(top - 1) & mask] = (char) checkpoint;
+    }
+
+    public void clear() {
+        top = 0;
+        count = 0;
+    }
+}
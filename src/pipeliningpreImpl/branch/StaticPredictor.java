@@ -0,0 +1,16 @@
+package pipeliningpreImpl.branch;
+
+// static prediction, a conditional jump is never taken
+public class StaticPredictor implements BranchPredictor {
+
+    public boolean predict(int pc) {
+        return false;
+    }
+
+    public void update(int pc, boolean taken) {
+    }
+
+    public String getName() {
+        return "static not-taken";
+    }
+}
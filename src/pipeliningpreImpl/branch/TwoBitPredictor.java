@@ -0,0 +1,36 @@
+package pipeliningpreImpl.branch;
+
+import java.util.Arrays;
+
+// 2 bit saturating counters indexed by the PC, 0 and 1 predict not taken, 2 and 3 taken
+public class TwoBitPredictor implements BranchPredictor {
+    private final byte[] counters;
+    private final int mask;
+
+    // constructor, the number of counters is rounded up to a power of 2
+    public TwoBitPredictor(int entries) {
+        int n = 1;
+        while (n < entries)
+            n <<= 1;
+        counters = new byte[n];
+        mask = n - 1;
+        // start weakly not taken
+        Arrays.fill(counters, (byte) 1);
+    }
+
+    public boolean predict(int pc) {
+        return counters[pc & mask] >= 2;
+    }
+
+    public void update(int pc, boolean taken) {
+        int i = pc & mask;
+        if (taken && counters[i] < 3)
+            counters[i]++;
+        else if (!taken && counters[i] > 0)
+            counters[i]--;
+    }
+
+    public String getName() {
+        return "2-bit (" + counters.length + " counters)";
+    }
+}
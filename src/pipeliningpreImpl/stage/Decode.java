@@ -1,30 +1,208 @@
 package pipeliningpreImpl.stage;
 
-import java.util.concurrent.SynchronousQueue;
+import pipeliningpreImpl.Instr;
+import pipeliningpreImpl.Latch;
+import pipeliningpreImpl.Pipeline;
+import pipeliningpreImpl.RegisterFile;
+import pipeliningpreImpl.Stage;
 
-public class Decode implements Runnable {
+// instruction decode, reads the operands and reserves the registers to write
+// an instruction waits here until all its operands are produced,
+// and no instruction is passed on after a jump until execute has resolved it,
+// unless fetch follows a branch unit, then a misprediction is handled by recovery
+public class Decode implements Stage {
 
-    SynchronousQueue<Integer> IF_ID;
-    SynchronousQueue<Integer> ID_EX;
+    private final Pipeline pipeline;
+    private final RegisterFile registers;
+    private final Latch IF_ID;
+    private final Latch ID_EX;
+    private long controlSeq = -1;    // sequence number of the last jump passed on
 
-    public Decode(SynchronousQueue<Integer> IF_ID, SynchronousQueue<Integer> ID_EX) {
+    public Decode(Pipeline pipeline, Latch IF_ID, Latch ID_EX) {
+        this.pipeline = pipeline;
+        this.registers = pipeline.getRegisters();
         this.IF_ID = IF_ID;
         this.ID_EX = ID_EX;
     }
 
-    @Override
-    public void run() {
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - decode start");
-        try {
-            int data = this.IF_ID.take();
-            System.out.println("Thread Id: " + Thread.currentThread().getId() + " - get data: " + data);
-            data = data - 2;
-            this.ID_EX.put(data - 2);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public boolean cycle() {
+        // wrong path instructions have reached execute on another thread
+        if (pipeline.isRecovering()) {
+            if (!pipeline.isEmptyAfterDecode())
+                return false;
+            pipeline.finishRecovery();
         }
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - decode end");
+        Instr in = IF_ID.peek();
+        if (in == null)
+            return false;
+        // drop instructions fetched before a redirect
+        if (in.epoch != pipeline.getEpoch()) {
+            IF_ID.remove();
+            pipeline.countFlushed();
+            return true;
+        }
+        if (pipeline.getResolved() < controlSeq)
+            return false;
+        Instr out = ID_EX.claim();
+        if (out == null)
+            return false;
+        decode(in);
+        int r = blockingSource(in);
+        if (r >= 0) {
+            pipeline.countStall(registers.isWaitingForMemory(r));
+            return false;
+        }
+        readOperands(in);
+        in.seq = pipeline.nextSeq();
+        reserve(in);
+        if (isControl(in) && !(pipeline.getBranchUnit() != null && in.opcode >= 010 && in.opcode <= 017))
+            controlSeq = in.seq;
+        out.copyFrom(in);
+        ID_EX.publish();
+        IF_ID.remove();
+        pipeline.countIssued();
+        return true;
+    }
+
+    // decode the fields of the word and find the registers it writes
+    private void decode(Instr in) {
+        char w = in.word;
+        in.opcode = w >> 10;
+        in.reg = (w & 0x0300) >> 8;
+        in.xreg = (w & 0x00C0) >> 6;
+        in.leftShift = (in.xreg & 0b01) == 1;
+        in.indirect = (w & 0x0020) != 0;
+        in.addr = w & 0x001F;
+        in.indexReg = (in.opcode != 041 && in.opcode != 042) ? in.xreg : 0;
+        in.dest1 = in.dest2 = -1;
+        in.writesCC = false;
+        if (in.fetchFault)
+            return;
+        switch (in.opcode) {
+            case 01: // LDR
+            case 03: // LDA
+            case 016: // SOB
+            case 023: // AND
+            case 024: // ORR
+            case 025: // NOT
+            case 031: // SRC
+            case 032: // RRC
+                in.dest1 = in.reg;
+                break;
+            case 04: // AMR
+            case 05: // SMR
+            case 06: // AIR
+            case 07: // SIR
+                in.dest1 = in.reg;
+                in.writesCC = true;
+                break;
+            case 014: // JSR
+                in.dest1 = 3;
+                break;
+            case 015: // RFS
+                in.dest1 = 0;
+                break;
+            case 020: // MLT
+            case 021: // DVD
+                if (in.reg < 3) {
+                    in.dest1 = in.reg;
+                    in.dest2 = in.reg + 1;
+                    in.writesCC = true;
+                }
+                break;
+            case 022: // TRR
+                in.writesCC = true;
+                break;
+            case 041: // LDX
+                if (in.xreg != 0)
+                    in.dest1 = RegisterFile.XR1 + in.xreg - 1;
+                break;
+            case 061: // IN
+                if (in.addr == 0)
+                    in.dest1 = in.reg;
+                break;
+        }
+    }
+
+    // find a source register which is not produced yet, -1 if all are ready
+    private int blockingSource(Instr in) {
+        if (in.fetchFault)
+            return -1;
+        if (in.indexReg != 0 && !registers.isReady(RegisterFile.XR1 + in.indexReg - 1))
+            return RegisterFile.XR1 + in.indexReg - 1;
+        int r = sourceReg(in);
+        if (r >= 0 && !registers.isReady(r))
+            return r;
+        if (usesXReg(in) && !registers.isReady(in.xreg))
+            return in.xreg;
+        if (in.opcode == 021 && in.reg < 3 && !registers.isReady(in.reg + 1)) // DVD
+            return in.reg + 1;
+        if (in.opcode == 012 && !registers.isReady(RegisterFile.CC)) // JCC
+            return RegisterFile.CC;
+        return -1;
+    }
+
+    // read the operands, all of them are ready
+    private void readOperands(Instr in) {
+        in.x = in.indexReg != 0 ? registers.read(RegisterFile.XR1 + in.indexReg - 1) : 0;
+        int r = sourceReg(in);
+        in.r = r >= 0 ? registers.read(r) : 0;
+        in.rx = usesXReg(in) ? registers.read(in.xreg) : 0;
+        in.r1 = (in.opcode == 021 && in.reg < 3) ? registers.read(in.reg + 1) : 0;
+        in.cc = registers.read(RegisterFile.CC);
+    }
+
+    // reserve the registers the instruction writes
+    private void reserve(Instr in) {
+        boolean memory = in.opcode == 01 || in.opcode == 04 || in.opcode == 05 || in.opcode == 041;
+        if (in.dest1 >= 0)
+            registers.reserve(in.dest1, in.seq, memory);
+        if (in.dest2 >= 0)
+            registers.reserve(in.dest2, in.seq, false);
+        if (in.writesCC)
+            registers.reserve(RegisterFile.CC, in.seq, memory);
+    }
+
+    // check if execute may redirect fetch after the instruction, a fault of
+    // the other instructions is rare and handled by recovery
+    private static boolean isControl(Instr in) {
+        return in.fetchFault || in.opcode == 0 || (in.opcode >= 010 && in.opcode <= 017) || in.opcode == 036;
+    }
+
+    // the register read into r, -1 for none
+    private static int sourceReg(Instr in) {
+        switch (in.opcode) {
+            case 02: // STR
+            case 04: // AMR
+            case 05: // SMR
+            case 06: // AIR
+            case 07: // SIR
+            case 010: // JZ
+            case 011: // JNE
+            case 016: // SOB
+            case 017: // JGE
+            case 020: // MLT
+            case 021: // DVD
+            case 022: // TRR
+            case 023: // AND
+            case 024: // ORR
+            case 025: // NOT
+            case 031: // SRC
+            case 032: // RRC
+            case 062: // OUT
+                return in.reg;
+            case 015: // RFS
+                return 3;
+            case 042: // STX
+                return in.xreg != 0 ? RegisterFile.XR1 + in.xreg - 1 : -1;
+            default:
+                return -1;
+        }
+    }
 
+    // check if the instruction reads Reg[xreg] as the second register
+    private static boolean usesXReg(Instr in) {
+        return in.opcode >= 020 && in.opcode <= 024; // MLT, DVD, TRR, AND, ORR
     }
 
 }
@@ -1,29 +1,334 @@
 package pipeliningpreImpl.stage;
 
-import java.util.concurrent.SynchronousQueue;
+import pipeliningpreImpl.IOPort;
+import pipeliningpreImpl.Instr;
+import pipeliningpreImpl.Latch;
+import pipeliningpreImpl.MemoryPort;
+import pipeliningpreImpl.Pipeline;
+import pipeliningpreImpl.RegisterFile;
+import pipeliningpreImpl.Stage;
+import pipeliningpreImpl.branch.BranchUnit;
 
-public class Execute implements Runnable {
+// execute, calculates EA and the results, resolves jumps, traps and machine faults
+// an indirect address takes one more cycle to read, IN waits here for input
+// reading memory waits until memory stage has done the stores before, the return
+// addresses of TRAP and machine faults are stored by memory stage
+public class Execute implements Stage {
 
-    SynchronousQueue<Integer> ID_EX;
-    SynchronousQueue<Integer> EX_MEM;
+    // memory address bounds of the reserved part
+    private static final int RESERVED_MEMORY_BOUNDS = 27;
 
-    public Execute(SynchronousQueue<Integer> ID_EX, SynchronousQueue<Integer> EX_MEM) {
+    private final Pipeline pipeline;
+    private final MemoryPort memory;
+    private final IOPort io;
+    private final RegisterFile registers;
+    private final Latch ID_EX;
+    private final Latch EX_MEM;
+
+    public Execute(Pipeline pipeline, Latch ID_EX, Latch EX_MEM) {
+        this.pipeline = pipeline;
+        this.memory = pipeline.getMemory();
+        this.io = pipeline.getIO();
+        this.registers = pipeline.getRegisters();
         this.ID_EX = ID_EX;
         this.EX_MEM = EX_MEM;
     }
 
-    @Override
-    public void run() {
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - execute start");
-        try {
-            int data = this.ID_EX.take();
-            System.out.println("Thread Id: " + Thread.currentThread().getId() + " - get data: " + data);
-            data = data - 2;
-            this.EX_MEM.put(data);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public boolean cycle() {
+        Instr in = ID_EX.peek();
+        if (in == null)
+            return false;
+        // decode on another thread has passed on instructions after a machine fault
+        if (in.epoch != pipeline.getEpoch()) {
+            ID_EX.remove();
+            pipeline.dropWrongPath();
+            pipeline.setResolved(in.seq);
+            return true;
+        }
+        Instr out = EX_MEM.claim();
+        if (out == null)
+            return false;
+        if (in.fetchFault) {
+            // the CPU runs the fault and then the empty word as HLT
+            fault(in, 3);
+            in.halt = true;
+            pipeline.redirect(-1, -1, in.epoch);
+            pass(in, out);
+            return true;
+        }
+        if (!in.indirectDone) {
+            in.ea = in.addr + in.x;
+            if (in.indirect) {
+                if (!pipeline.isMemoryIdle())
+                    return false;
+                in.indirectDone = true;
+                if (in.ea >= memory.size()) {
+                    fault(in, 3);
+                    pass(in, out);
+                } else {
+                    in.ea = memory.load(in.ea);
+                    pipeline.countIndirect();
+                }
+                return true;
+            }
+        }
+        if (!execute(in))
+            return false;
+        if (!in.faulted && (in.opcode >= 010 && in.opcode <= 017 || in.opcode == 036))
+            resolve(in);
+        produce(in);
+        pass(in, out);
+        return true;
+    }
+
+    // check the prediction of fetch, redirect it if the next PC was mispredicted
+    private void resolve(Instr in) {
+        BranchUnit unit = pipeline.getBranchUnit();
+        if (unit != null && in.opcode != 036)
+            unit.resolve(in.pc, in.opcode, in.nextPC, in.predictedPC);
+        if (in.nextPC != in.predictedPC)
+            pipeline.redirect(in.nextPC, in.rasCheckpoint, in.epoch);
+    }
+
+    // pass the instruction on to memory stage
+    private void pass(Instr in, Instr out) {
+        out.copyFrom(in);
+        EX_MEM.publish();
+        ID_EX.remove();
+        pipeline.countExecuted();
+        pipeline.setResolved(in.seq);
+    }
+
+    // execute the instruction, return false if it has to wait
+    private boolean execute(Instr in) {
+        int r = in.r;
+        int ea = in.ea;
+        in.nextPC = in.pc + 1;
+        switch (in.opcode) {
+            case 0: // HLT
+                in.halt = true;
+                in.nextPC = in.pc;
+                pipeline.redirect(-1, -1, in.epoch);
+                break;
+            case 01: // LDR
+            case 04: // AMR
+            case 05: // SMR
+                if (checkAddress(in))
+                    in.memOp = Instr.LOAD;
+                break;
+            case 02: // STR
+                if ((char) ea <= RESERVED_MEMORY_BOUNDS)
+                    fault(in, 0);
+                else if (checkAddress(in)) {
+                    in.memOp = Instr.STORE;
+                    in.storeValue = (char) r;
+                }
+                break;
+            case 03: // LDA
+                in.value1 = (char) ea;
+                break;
+            case 06: // AIR
+            {
+                int tmp = (short) r + in.addr;
+                in.ccValue = (char) (tmp > Short.MAX_VALUE ? 0b1000 : 0b0000);
+                in.value1 = (char) (r + in.addr);
+                break;
+            }
+            case 07: // SIR
+            {
+                int tmp = (short) r - in.addr;
+                in.ccValue = (char) (tmp < Short.MIN_VALUE ? 0b0100 : 0b0000);
+                in.value1 = (char) tmp;
+                break;
+            }
+            case 010: // JZ
+                branch(in, r == 0);
+                break;
+            case 011: // JNE
+                branch(in, r != 0);
+                break;
+            case 012: // JCC
+                branch(in, in.cc == 1 << (3 - in.reg));
+                break;
+            case 013: // JMA
+                branch(in, true);
+                break;
+            case 014: // JSR
+                in.value1 = (char) (in.pc + 1);
+                branch(in, true);
+                break;
+            case 015: // RFS
+                in.value1 = (char) in.addr;
+                in.ea = r;
+                branch(in, true);
+                break;
+            case 016: // SOB
+            {
+                short tmp = (short) (r - 1);
+                in.value1 = (char) tmp;
+                branch(in, tmp > 0);
+                break;
+            }
+            case 017: // JGE
+                branch(in, (short) r >= 0);
+                break;
+            case 020: // MLT
+            {
+                if (in.dest2 < 0) {
+                    fault(in, 2);
+                    break;
+                }
+                int re = (short) r * (short) in.rx;
+                in.value1 = (char) (re >>> 16);
+                in.value2 = (char) (re & 0x0000FFFF);
+                in.ccValue = 0b0000;
+                break;
+            }
+            case 021: // DVD
+            {
+                if (in.dest2 < 0) {
+                    fault(in, 2);
+                    break;
+                }
+                if (in.rx == 0) {
+                    in.ccValue = 0b0010;
+                    in.value1 = (char) r;
+                    in.value2 = (char) in.r1;
+                } else {
+                    in.ccValue = 0b0000;
+                    in.value1 = (char) ((short) r / (short) in.rx);
+                    in.value2 = (char) ((short) r % (short) in.rx);
+                }
+                break;
+            }
+            case 022: // TRR
+                in.ccValue = (char) (r == in.rx ? 0b0001 : 0b0000);
+                break;
+            case 023: // AND
+                in.value1 = (char) (r & in.rx);
+                break;
+            case 024: // ORR
+                in.value1 = (char) (r | in.rx);
+                break;
+            case 025: // NOT
+                in.value1 = (char) ~r;
+                break;
+            case 031: // SRC
+            {
+                short s = (short) r;
+                in.value1 = (char) (in.leftShift ? (short) (s << in.addr) : (short) (s >> in.addr));
+                break;
+            }
+            case 032: // RRC
+            {
+                int v = r;
+                for (int i = 0; i < in.addr; i++) {
+                    if (in.leftShift)
+                        v = ((v << 1) | ((v & 0x8000) == 0 ? 0 : 1)) & 0xFFFF;
+                    else
+                        v = ((v >> 1) | ((v & 1) == 0 ? 0 : 0x8000)) & 0xFFFF;
+                }
+                in.value1 = (char) v;
+                break;
+            }
+            case 036: // TRAP
+            {
+                if (!pipeline.isMemoryIdle())
+                    return false;
+                // the size of trap entries table
+                int trapCodeRange = 8;
+                if (in.addr > trapCodeRange) {
+                    fault(in, 1);
+                    in.faultReturn = 1;
+                } else {
+                    in.ea = memory.load(0) + in.addr;
+                    branch(in, true);
+                }
+                in.memOp = Instr.STORE;
+                in.ea = 2;
+                in.storeValue = (char) (in.pc + 1);
+                break;
+            }
+            case 041: // LDX
+                if (in.xreg == 0)
+                    fault(in, 2);
+                else if (checkAddress(in))
+                    in.memOp = Instr.LOAD;
+                break;
+            case 042: // STX
+                if (in.xreg == 0)
+                    fault(in, 2);
+                else if ((char) ea <= RESERVED_MEMORY_BOUNDS)
+                    fault(in, 0);
+                else if (checkAddress(in)) {
+                    in.memOp = Instr.STORE;
+                    in.storeValue = (char) r;
+                }
+                break;
+            case 061: // IN
+            {
+                if (!isSafeForIO(in))
+                    return false;
+                int v = io.read(in.addr);
+                if (v < 0) {
+                    pipeline.setWaiting(true);
+                    return false;
+                }
+                pipeline.setWaiting(false);
+                in.value1 = (char) v;
+                break;
+            }
+            case 062: // OUT
+                if (!isSafeForIO(in))
+                    return false;
+                io.write(in.addr, (char) r);
+                break;
+            default:
+                fault(in, 2);
+                break;
         }
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - execute end");
+        return true;
+    }
+
+    // jump to EA if the condition is true
+    private void branch(Instr in, boolean taken) {
+        if (taken)
+            in.nextPC = (char) in.ea;
+    }
+
+    // raise a fault if the EA is out of range, return true if it is valid
+    private boolean checkAddress(Instr in) {
+        if (in.ea < memory.size())
+            return true;
+        fault(in, 3);
+        return false;
+    }
+
+    // check if no store before the instruction can clear it, the IO of a dropped instruction
+    // cannot be undone
+    private boolean isSafeForIO(Instr in) {
+        return pipeline.isMemoryIdle() && in.epoch == pipeline.getEpoch();
+    }
+
+    // raise a machine fault, the instruction writes no register
+    private void fault(Instr in, int id) {
+        if (pipeline.redirect(1, -1, in.epoch))
+            pipeline.setMachineFault((char) (1 << id));
+        in.faulted = true;
+        in.faultReturn = (char) (in.pc + 1);
+        in.nextPC = 1;
+    }
+
+    // forward the results which are known now
+    private void produce(Instr in) {
+        if (in.faulted || in.memOp == Instr.LOAD)
+            return;
+        if (in.dest1 >= 0)
+            registers.produce(in.dest1, in.seq, in.value1);
+        if (in.dest2 >= 0)
+            registers.produce(in.dest2, in.seq, in.value2);
+        if (in.writesCC)
+            registers.produce(RegisterFile.CC, in.seq, in.ccValue);
     }
 
-}
\ No newline at end of file
+}
@@ -1,24 +1,69 @@
 package pipeliningpreImpl.stage;
 
-import java.util.concurrent.SynchronousQueue;
+import pipeliningpreImpl.Instr;
+import pipeliningpreImpl.Latch;
+import pipeliningpreImpl.MemoryPort;
+import pipeliningpreImpl.Pipeline;
+import pipeliningpreImpl.Stage;
+import pipeliningpreImpl.branch.BranchUnit;
 
-public class Fetch implements Runnable{
+// instruction fetch, fetches the next word every cycle,
+// it follows the branch unit of the pipeline or predicts no jump without one
+public class Fetch implements Stage {
 
-    SynchronousQueue<Integer> IF_ID;
+    private final Pipeline pipeline;
+    private final MemoryPort memory;
+    private final Latch IF_ID;
 
-    public Fetch (SynchronousQueue<Integer> IF_ID){
+    private int pc;    // address of the next fetch
+    private int epoch;    // epoch given to the fetched instructions
+    private boolean stopped;    // stop fetching until the next redirect
+
+    public Fetch(Pipeline pipeline, Latch IF_ID) {
+        this.pipeline = pipeline;
+        this.memory = pipeline.getMemory();
         this.IF_ID = IF_ID;
     }
 
-    @Override
-    public void run() {
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - fetch start");
-        try {
-            this.IF_ID.put(99);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    // take the last redirect of the pipeline if it is new
+    public void poll() {
+        long r = pipeline.getRedirect();
+        int e = (int) (r >>> 32);
+        if (e != epoch) {
+            pc = (int) r;
+            epoch = e;
+            stopped = pc < 0;
+            BranchUnit unit = pipeline.getBranchUnit();
+            long checkpoint = pipeline.getRedirectCheckpoint();
+            if (unit != null && checkpoint != -1)
+                unit.restore(checkpoint);
+        }
+    }
+
+    public boolean cycle() {
+        if (stopped)
+            return false;
+        Instr in = IF_ID.claim();
+        if (in == null)
+            return false;
+        if (pc >= memory.size()) {
+            // the fault is raised if the instruction reaches execute
+            in.reset(pc, (char) 0, epoch);
+            in.fetchFault = true;
+            stopped = true;
+            IF_ID.publish();
+            return true;
+        }
+        pipeline.recordFetch(pc);
+        in.reset(pc, (char) memory.fetch(pc), epoch);
+        BranchUnit unit = pipeline.getBranchUnit();
+        if (unit != null) {
+            in.predictedPC = unit.predict(pc, in.word);
+            in.rasCheckpoint = unit.checkpoint();
         }
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - fetch end");
+        IF_ID.publish();
+        pc = in.predictedPC;
+        return true;
     }
 
-}
\ No newline at end of file
+}
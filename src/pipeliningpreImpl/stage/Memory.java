@@ -1,30 +1,91 @@
 package pipeliningpreImpl.stage;
 
-import java.util.concurrent.SynchronousQueue;
+import pipeliningpreImpl.Instr;
+import pipeliningpreImpl.Latch;
+import pipeliningpreImpl.MemoryPort;
+import pipeliningpreImpl.Pipeline;
+import pipeliningpreImpl.RegisterFile;
+import pipeliningpreImpl.Stage;
 
-public class Memory implements Runnable {
+// memory access, loads and stores, AMR and SMR add after the load
+// the return address of a machine fault is stored here after the store of the instruction
+// a store to a word which may have been fetched clears the machine, the younger instructions
+// are dropped here or by the stages before and fetch goes on after the store
+public class Memory implements Stage {
 
-    SynchronousQueue<Integer> EX_MEM;
-    SynchronousQueue<Integer> MEM_WB;
+    // address of the return address of a machine fault
+    private static final int FAULT_RETURN_ADDRESS = 4;
 
-    public Memory(SynchronousQueue<Integer> EX_MEM, SynchronousQueue<Integer> MEM_WB) {
+    private final Pipeline pipeline;
+    private final MemoryPort memory;
+    private final RegisterFile registers;
+    private final Latch EX_MEM;
+    private final Latch MEM_WB;
+    private int clearEpoch;    // epoch of the last machine clear, instructions fetched before are dropped
+
+    public Memory(Pipeline pipeline, Latch EX_MEM, Latch MEM_WB) {
+        this.pipeline = pipeline;
+        this.memory = pipeline.getMemory();
+        this.registers = pipeline.getRegisters();
         this.EX_MEM = EX_MEM;
         this.MEM_WB = MEM_WB;
     }
 
-    @Override
-    public void run() {
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - memory start");
-
-        try {
-            int data = this.EX_MEM.take();
-            System.out.println("Thread Id: " + Thread.currentThread().getId() + " - get data: " + data);
-            data = data - 2;
-            this.MEM_WB.put(data);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public boolean cycle() {
+        Instr in = EX_MEM.peek();
+        if (in == null)
+            return false;
+        // execute on another thread has passed on instructions after a machine clear
+        if (in.epoch - clearEpoch < 0) {
+            EX_MEM.remove();
+            pipeline.countMemoryDone();
+            pipeline.squash();
+            return true;
         }
-
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - memory end");
+        Instr out = MEM_WB.claim();
+        if (out == null)
+            return false;
+        if (in.memOp == Instr.LOAD) {
+            char m = (char) memory.load(in.ea);
+            pipeline.setMemoryAccess(in.ea, m);
+            int r = in.r;
+            switch (in.opcode) {
+                case 04: // AMR
+                {
+                    int tmp = (short) r + (short) m;
+                    in.ccValue = (char) (tmp > Short.MAX_VALUE ? 0b1000 : tmp < Short.MIN_VALUE ? 0b0100 : 0b0000);
+                    in.value1 = (char) (r + m);
+                    break;
+                }
+                case 05: // SMR
+                {
+                    int tmp = (short) r - (short) m;
+                    in.ccValue = (char) (tmp > Short.MAX_VALUE ? 0b1000 : tmp < Short.MIN_VALUE ? 0b0100 : 0b0000);
+                    in.value1 = (char) (r - m);
+                    break;
+                }
+                default: // LDR, LDX
+                    in.value1 = m;
+                    break;
+            }
+            registers.produce(in.dest1, in.seq, in.value1);
+            if (in.writesCC)
+                registers.produce(RegisterFile.CC, in.seq, in.ccValue);
+        } else if (in.memOp == Instr.STORE) {
+            memory.store(in.ea, in.storeValue);
+            pipeline.setMemoryAccess(in.ea, in.storeValue);
+            if (pipeline.isFetched(in.ea)) {
+                clearEpoch = pipeline.redirect(in.nextPC, in.rasCheckpoint);
+            }
+        }
+        if (in.faulted) {
+            memory.store(FAULT_RETURN_ADDRESS, in.faultReturn);
+            pipeline.setMemoryAccess(FAULT_RETURN_ADDRESS, in.faultReturn);
+        }
+        out.copyFrom(in);
+        MEM_WB.publish();
+        EX_MEM.remove();
+        pipeline.countMemoryDone();
+        return true;
     }
-}
\ No newline at end of file
+}
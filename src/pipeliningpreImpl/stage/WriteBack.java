@@ -1,25 +1,45 @@
 package pipeliningpreImpl.stage;
 
-import java.util.concurrent.SynchronousQueue;
+import pipeliningpreImpl.Instr;
+import pipeliningpreImpl.Latch;
+import pipeliningpreImpl.Pipeline;
+import pipeliningpreImpl.RegisterFile;
+import pipeliningpreImpl.Stage;
 
-public class WriteBack implements Runnable {
+// write back, commits the registers and retires the instruction
+public class WriteBack implements Stage {
 
-    SynchronousQueue<Integer> MEM_WB;
+    private final Pipeline pipeline;
+    private final RegisterFile registers;
+    private final Latch MEM_WB;
 
-    public WriteBack(SynchronousQueue<Integer> MEM_WB) {
+    public WriteBack(Pipeline pipeline, Latch MEM_WB) {
+        this.pipeline = pipeline;
+        this.registers = pipeline.getRegisters();
         this.MEM_WB = MEM_WB;
     }
 
-    @Override
-    public void run() {
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - writeback start");
-        try {
-            int data = this.MEM_WB.take();
-            System.out.println("Thread Id: " + Thread.currentThread().getId() + " - get data: " + data);
-
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public boolean cycle() {
+        Instr in = MEM_WB.peek();
+        if (in == null)
+            return false;
+        if (in.faulted) {
+            if (in.dest1 >= 0)
+                registers.release(in.dest1, in.seq);
+            if (in.dest2 >= 0)
+                registers.release(in.dest2, in.seq);
+            if (in.writesCC)
+                registers.release(RegisterFile.CC, in.seq);
+        } else {
+            if (in.dest1 >= 0)
+                registers.commit(in.dest1, in.seq, in.value1);
+            if (in.dest2 >= 0)
+                registers.commit(in.dest2, in.seq, in.value2);
+            if (in.writesCC)
+                registers.commit(RegisterFile.CC, in.seq, in.ccValue);
         }
-        System.out.println("Thread Id: " + Thread.currentThread().getId() + " - writeback end");
+        pipeline.retire(in);
+        MEM_WB.remove();
+        return true;
     }
-}
\ No newline at end of file
+}